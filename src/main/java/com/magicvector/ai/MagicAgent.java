@@ -1,13 +1,24 @@
 package com.magicvector.ai;
 
+import com.github.tbwork.anole.loader.Anole;
 import com.magicvector.ai.brain.Brain;
 import com.magicvector.ai.brain.llm.openai.GeneralBrain;
+import com.magicvector.ai.session.MagicSession;
+import com.magicvector.ai.util.IDUtil;
 import com.magicvector.ai.wizards.IChatWizard;
 import com.magicvector.ai.wizards.impl.ChatWizard;
 import com.magicvector.ai.wizards.model.MagicChat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.magicvector.ai.util.PromptUtil.compileSpellPrompt;
 
@@ -15,10 +26,17 @@ public class MagicAgent {
 
     private static final Logger logger = LoggerFactory.getLogger(MagicAgent.class);
 
+    private static volatile ExecutorService executor;
+
     private IChatWizard chatWizard;
 
     private MagicChat magicChat;
 
+    /**
+     * 接收用户消息的信箱，AI忙碌时到达的消息会合并到下一个回合
+     */
+    private MagicSession session;
+
 
     public MagicAgent(Brain brain, String systemPrompt){
         this(brain, systemPrompt, 20);
@@ -37,6 +55,7 @@ public class MagicAgent {
     public MagicAgent(Brain brain, String systemPrompt, int maxRounds){
         this.chatWizard = new ChatWizard(brain, maxRounds);
         this.magicChat = startChat(systemPrompt);
+        this.session = new MagicSession(IDUtil.getUniqueId(), this.magicChat, this.chatWizard);
     }
 
     private MagicChat startChat(String systemPrompt){
@@ -48,8 +67,11 @@ public class MagicAgent {
         return magicChat;
     }
 
+    /**
+     * 清空上下文，仅保留系统提示词。清空与AI的回答串行执行，AI正忙时在此前的回答结束后清空，调用线程等待清空完成
+     */
     public void clearContext(){
-        this.magicChat.clearConversation();
+        submit(MagicSession.Turn.control(MagicChat::clearConversation));
     }
     public String proceedChatWithStream(OutputStream outputStream){
         return chatWizard.doThink(this.magicChat, outputStream);
@@ -59,14 +81,99 @@ public class MagicAgent {
         return this.magicChat.isIdle();
     }
 
+    /**
+     * 推进聊天，AI的回答流式写入输出流。
+     * AI正忙时不会报错，消息会与忙碌期间的其他消息合并，在当前回答结束后一起处理，调用线程等待其回答。
+     */
     public String proceedWithStream(String userMessage, OutputStream outputStream){
-        this.magicChat.appendUserMessage(userMessage);
-        return chatWizard.doThink(this.magicChat, outputStream);
+        return submit(new MagicSession.Turn(userMessage, outputStream));
     }
 
+    /**
+     * 异步推进聊天，调用线程不会等待AI的回答。AI正忙时的处理同{@link #proceedWithStream(String, OutputStream)}
+     */
+    public CompletableFuture<String> proceedWithStreamAsync(String userMessage, OutputStream outputStream){
+        MagicSession.Turn turn = new MagicSession.Turn(userMessage, outputStream);
+        if (session.offer(turn) == MagicSession.OfferResult.SCHEDULE) {
+            schedule(session);
+        }
+        return turn.getResult();
+    }
+
+    /**
+     * 推进聊天并返回AI的回答，AI正忙时的处理同{@link #proceedWithStream(String, OutputStream)}
+     */
     public String proceed(String userMessage){
-        this.magicChat.appendUserMessage(userMessage);
-        return chatWizard.doResponse(this.magicChat);
+        return submit(new MagicSession.Turn(userMessage, null));
+    }
+
+    private String submit(MagicSession.Turn turn){
+        if (session.offer(turn) == MagicSession.OfferResult.SCHEDULE) {
+            // 会话空闲，由调用线程发起包含自己消息的一批；期间到达的消息在回合结束后交给线程池发起
+            runNextBatch(session);
+        }
+        try {
+            return turn.getResult().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static void schedule(MagicSession session){
+        try {
+            getExecutor().execute(() -> runNextBatch(session));
+        } catch (RejectedExecutionException e) {
+            logger.warn("会话{}的回合无法调度，线程池已满。", session.getSessionId());
+            for (MagicSession.Turn turn : session.drain()) {
+                turn.getResult().completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 发起信箱中积累的消息，回合结束时又有消息到达则重新排队。等待AI回答期间不占用线程
+     */
+    private static void runNextBatch(MagicSession session){
+        session.runNextBatchAsync().thenAccept(hasMore -> {
+            if (hasMore) {
+                schedule(session);
+            }
+        });
+    }
+
+    /**
+     * 发起异步回合和AI忙碌期间积累的消息的线程池，所有MagicAgent共享。只在发起回合时占用线程，AI回答由魔法师的异步接口处理
+     */
+    private static ExecutorService getExecutor(){
+        if (executor == null) {
+            synchronized (MagicAgent.class) {
+                if (executor == null) {
+                    int maxSize = Anole.getIntProperty("magicgpt.config.agent.threads.maxSize", 64);
+                    int queueSize = Anole.getIntProperty("magicgpt.config.agent.threads.queueSize", 10000);
+                    long keepAliveSeconds = Anole.getLongProperty("magicgpt.config.agent.threads.keepAliveTime.second", 60L);
+                    AtomicInteger threadNumber = new AtomicInteger(1);
+                    ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
+                            maxSize,
+                            maxSize,
+                            keepAliveSeconds,
+                            TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(queueSize),
+                            runnable -> {
+                                Thread thread = new Thread(runnable, "magicgpt-agent-" + threadNumber.getAndIncrement());
+                                thread.setDaemon(true);
+                                return thread;
+                            },
+                            new ThreadPoolExecutor.AbortPolicy()
+                    );
+                    threadPool.allowCoreThreadTimeOut(true);
+                    executor = threadPool;
+                }
+            }
+        }
+        return executor;
     }
 
 }
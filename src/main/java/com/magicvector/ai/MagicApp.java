@@ -1,28 +1,125 @@
 package com.magicvector.ai;
 
+import com.github.tbwork.anole.loader.Anole;
 import com.magicvector.ai.annotation.MagicBook;
 import com.magicvector.ai.annotation.SpellDefinition;
 import com.magicvector.ai.core.Spell;
+import com.magicvector.ai.core.builtin.SpellResultBook;
 import com.magicvector.ai.core.manager.SpellManager;
+import com.magicvector.ai.core.register.IMagicBookRegistry;
 import com.magicvector.ai.core.register.impl.AnnotationCallSpellCollector;
 import lombok.extern.slf4j.Slf4j;
 import org.reflections.Reflections;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
 import java.lang.reflect.Method;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 @Slf4j
 public class MagicApp {
 
+    /**
+     * 已经注册过的咒语书对应的注册表类名（无论通过索引还是扫描注册），避免包名重叠时重复注册
+     */
+    private static final Set<String> loadedRegistries = new HashSet<>();
+
 
     public static void start(String ... packages){
+        registerBuiltinBooks();
+        Set<String> indexedRegistries = readRegistryIndex();
         for (String aPackage : packages) {
+            boolean indexed = loadFromIndex(aPackage, indexedRegistries);
             log.info("正在扫描{}下的所有咒语并注册...", aPackage);
-            loadAndRegister(aPackage);
+            loadAndRegister(aPackage, indexed);
         }
     }
 
 
-    private static void loadAndRegister(String packageName){
+    /**
+     * 通过编译期生成的注册表注册指定包下的咒语
+     * @return 索引中是否有该包下的注册表
+     */
+    private static boolean loadFromIndex(String packageName, Set<String> indexedRegistries){
+        boolean found = false;
+        for (String registryName : indexedRegistries) {
+            if (!registryName.startsWith(packageName + ".")) {
+                continue;
+            }
+            found = true;
+            synchronized (loadedRegistries){
+                if(!loadedRegistries.add(registryName)){
+                    continue;
+                }
+            }
+            try {
+                IMagicBookRegistry registry = (IMagicBookRegistry) Class.forName(registryName).getDeclaredConstructor().newInstance();
+                SpellManager.registerBook(registry.getBookName(), registry.collect());
+                log.info("已通过索引注册咒语书{}", registry.getBookName());
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Fail to load spell registry " + registryName, e);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 注册框架内置的咒语书。分页查看咒语结果的咒语书会占用咒语名称readSpellResult，需通过配置开启
+     */
+    private static void registerBuiltinBooks(){
+        if(!Anole.getBoolProperty("magicgpt.config.spell.result.pageable", false)){
+            return;
+        }
+        synchronized (loadedRegistries){
+            if(!loadedRegistries.add(getRegistryName(SpellResultBook.class))){
+                return;
+            }
+        }
+        SpellManager.registerBook(SpellResultBook.BOOK_NAME, new AnnotationCallSpellCollector(getSpellMethods(SpellResultBook.class)).collect());
+    }
+
+    private static Set<Method> getSpellMethods(Class<?> clazz){
+        Set<Method> methodSet = new HashSet<>();
+        for (Method method : clazz.getDeclaredMethods()) {
+            if (method.isAnnotationPresent(SpellDefinition.class)) {
+                methodSet.add(method);
+            }
+        }
+        return methodSet;
+    }
+
+    private static Set<String> readRegistryIndex(){
+        Set<String> registries = new LinkedHashSet<>();
+        try {
+            ClassLoader classLoader = MagicApp.class.getClassLoader();
+            Enumeration<URL> indexes = classLoader.getResources(IMagicBookRegistry.INDEX_RESOURCE);
+            while (indexes.hasMoreElements()) {
+                URL index = indexes.nextElement();
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(index.openStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        line = line.trim();
+                        if (!line.isEmpty()) {
+                            registries.add(line);
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Fail to read spell registry index, fall back to classpath scanning. Details: {}", e.getMessage());
+        }
+        return registries;
+    }
+
+
+    /**
+     * 扫描包下的咒语书类，注册索引中没有的咒语书。
+     * 索引可能只覆盖包的一部分（索引过期、某个jar编译时没有启用注解处理器、其他模块添加的咒语书），因此按类判断是否需要回退到反射注册。
+     * @param indexed 索引中是否有该包下的注册表，有时对遗漏的咒语书给出警告
+     */
+    private static void loadAndRegister(String packageName, boolean indexed){
         Reflections reflections = new Reflections(packageName);
         Set<Class<?>> annotatedClasses = reflections.getTypesAnnotatedWith(MagicBook.class);
         annotatedClasses.forEach(clazz ->{
@@ -36,25 +133,32 @@ public class MagicApp {
                             "Class " + clazz.getName() + " has an invalid @MagicBook annotation: 'name' cannot be null or empty"
                     );
                 }
-
-                // 查找类中所有被 @SpellDefinition 标记的方法
-                Set<Method> methodSet = new HashSet<>();
-                Method[] methods = clazz.getDeclaredMethods();
-                for (Method method : methods) {
-                    if (method.isAnnotationPresent(SpellDefinition.class)) {
-                        // 获取方法上的注解
-                        SpellDefinition spellDefinition = method.getAnnotation(SpellDefinition.class);
-                        methodSet.add(method);
+                synchronized (loadedRegistries){
+                    if(!loadedRegistries.add(getRegistryName(clazz))){
+                        return;
                     }
                 }
+                if (indexed) {
+                    log.warn("咒语书类{}不在编译期生成的索引中，已通过反射注册，请检查索引是否过期或编译时是否启用了注解处理器。", clazz.getName());
+                }
+
+                // 查找类中所有被 @SpellDefinition 标记的方法
+                Set<Method> methodSet = getSpellMethods(clazz);
 
                 List<Spell> candidates = new ArrayList<>();
                 candidates.addAll(new AnnotationCallSpellCollector(methodSet).collect());
-                for (Spell candidate : candidates) {
-                    SpellManager.registerSpell(bookName, candidate);
-                }
+                SpellManager.registerBook(bookName, candidates);
             }
         });
     }
 
+    /**
+     * @return 注解处理器为咒语书类生成的注册表类名，与{@link com.magicvector.ai.core.register.processor.SpellRegistryProcessor}的命名一致
+     */
+    private static String getRegistryName(Class<?> bookClass){
+        String packageName = bookClass.getPackage() == null ? "" : bookClass.getPackage().getName();
+        String simpleName = bookClass.getName().substring(packageName.isEmpty() ? 0 : packageName.length() + 1).replace('$', '_');
+        return (packageName.isEmpty() ? "" : packageName + ".") + simpleName + IMagicBookRegistry.CLASS_SUFFIX;
+    }
+
 }
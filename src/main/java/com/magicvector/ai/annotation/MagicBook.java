@@ -13,4 +13,9 @@ public @interface MagicBook {
     @NotNull
     String name();
 
+    /**
+     * 书中咒语的默认执行超时（毫秒），小于等于0时使用配置项的值
+     */
+    long timeoutMillis() default 0;
+
 }
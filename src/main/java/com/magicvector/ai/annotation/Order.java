@@ -2,13 +2,13 @@ package com.magicvector.ai.annotation;
 
 import java.lang.annotation.*;
 
-@Target({ElementType.TYPE})
+@Target({ElementType.TYPE, ElementType.METHOD})
 @Retention(RetentionPolicy.RUNTIME)
 @Documented
 public @interface Order {
 
     /**
-     * 处理次序，越大代表越靠后
+     * 处理次序，越大代表越靠后。用于咒语方法时决定咒语在咒语书提示词中的次序
      * @return
      */
     @NotNull
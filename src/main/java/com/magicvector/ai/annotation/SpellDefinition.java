@@ -21,4 +21,29 @@ public @interface SpellDefinition {
     @NotNull
     boolean needCast() default true;
 
+    /**
+     * 执行超时（毫秒），小于等于0时使用咒语书或配置项的值
+     */
+    long timeoutMillis() default 0;
+
+    /**
+     * 咒语是否幂等，幂等的咒语会按参数缓存执行结果
+     */
+    boolean cacheable() default false;
+
+    /**
+     * 缓存结果的有效期（秒），仅在cacheable为true时生效
+     */
+    long cacheTtlSeconds() default 60;
+
+    /**
+     * 缓存的最大条目数，仅在cacheable为true时生效
+     */
+    int cacheMaxEntries() default 1000;
+
+    /**
+     * 放入对话的执行结果的tokens上限，超过时摘录要点，小于等于0时使用配置项的值
+     */
+    int maxResultTokens() default 0;
+
 }
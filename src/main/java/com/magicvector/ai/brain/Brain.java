@@ -1,6 +1,8 @@
 package com.magicvector.ai.brain;
+import com.magicvector.ai.brain.impl.LineChunkReader;
 import com.magicvector.ai.wizards.model.MagicChat;
 import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 大脑：思考处理器
@@ -29,6 +31,17 @@ public interface Brain {
     public String parseChunk(String chunk);
 
 
+    /**
+     * 打开大脑输出流的片段读取器。
+     * 默认按行读取并交给{@link #parseChunk(String)}解析，远端脑可以提供更高效的实现。
+     * @param inputStream 大脑的输出流
+     * @return 片段读取器
+     */
+    public default IChunkReader openChunkReader(InputStream inputStream){
+        return new LineChunkReader(this, inputStream);
+    }
+
+
     /**
      * 非流式处理，直接响应
      * @param magicChat
@@ -37,5 +50,28 @@ public interface Brain {
     public String response(MagicChat magicChat);
 
 
+    /**
+     * 异步的流式处理
+     * 等待远端响应期间不占用调用线程，响应开始返回时以输入流完成。
+     * 默认实现仅将同步的{@link #process(MagicChat)}放到公共线程池中执行，远端脑应当覆盖此方法。
+     * @param magicChat
+     * @return 完成时为大脑的输出流
+     */
+    public default CompletableFuture<InputStream> processAsync(MagicChat magicChat){
+        return CompletableFuture.supplyAsync(() -> process(magicChat));
+    }
+
+
+    /**
+     * 异步的非流式处理
+     * 默认实现仅将同步的{@link #response(MagicChat)}放到公共线程池中执行，远端脑应当覆盖此方法。
+     * @param magicChat
+     * @return 完成时为完整的响应内容
+     */
+    public default CompletableFuture<String> responseAsync(MagicChat magicChat){
+        return CompletableFuture.supplyAsync(() -> response(magicChat));
+    }
+
+
 
 }
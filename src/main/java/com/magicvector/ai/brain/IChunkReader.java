@@ -0,0 +1,22 @@
+package com.magicvector.ai.brain;
+
+import java.io.IOException;
+
+/**
+ * 流式片段读取器：从大脑的输出流中逐个读出内容片段。
+ */
+public interface IChunkReader {
+
+    /**
+     * 读取下一个内容片段
+     * @return 内容片段，流结束时返回null
+     * @throws IOException
+     */
+    String nextChunk() throws IOException;
+
+    /**
+     * @return 大脑是否返回了错误响应而非正常的流式内容
+     */
+    boolean isFailed();
+
+}
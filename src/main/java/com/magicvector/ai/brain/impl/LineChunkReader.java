@@ -0,0 +1,91 @@
+package com.magicvector.ai.brain.impl;
+
+import com.github.tbwork.anole.loader.util.JSON;
+import com.google.gson.JsonObject;
+import com.magicvector.ai.brain.Brain;
+import com.magicvector.ai.brain.IChunkReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * 按行读取的片段读取器，每一行交给{@link Brain#parseChunk(String)}解析。
+ */
+public class LineChunkReader implements IChunkReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(LineChunkReader.class);
+
+    private final Brain brain;
+
+    private final InputStream inputStream;
+
+    private final BufferedReader bufferedReader;
+
+    private boolean failed = false;
+
+    public LineChunkReader(Brain brain, InputStream inputStream){
+        this.brain = brain;
+        this.inputStream = inputStream;
+        this.bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
+    }
+
+    @Override
+    public String nextChunk() throws IOException {
+        String line;//每一行都是一个返回的片段。
+        while ((line = bufferedReader.readLine()) != null) {
+            if(line.isEmpty()){
+                continue;
+            }
+            if(this.isErrorResponse(line)){
+                this.readAndLogError();
+                failed = true;
+                return null;
+            }
+            String chunkText = brain.parseChunk(line);
+            if("EOF".equals(chunkText)){
+                //结束了
+                inputStream.close();
+                return null;
+            }
+            return chunkText;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isFailed() {
+        return failed;
+    }
+
+    private boolean isErrorResponse(String firstLine){
+        return "{".equals(firstLine.trim());
+    }
+
+
+    private void readAndLogError(){
+        try{
+            StringBuilder responseTextBuilder = new StringBuilder();
+            responseTextBuilder.append("{");
+            String line;
+            while ((line = bufferedReader.readLine()) != null){
+                responseTextBuilder.append(line);
+            }
+
+            JsonObject errorObj = (JsonObject) JSON.parse(responseTextBuilder.toString());
+            if(errorObj.has("error") && (errorObj.getAsJsonObject("error").has("code") || errorObj.getAsJsonObject("error").has("message"))){
+
+                String code = (errorObj.getAsJsonObject("error").get("code")==null ? "" : errorObj.getAsJsonObject("error").get("code")).toString();
+                String message = errorObj.getAsJsonObject("error").get("message")==null?"":errorObj.getAsJsonObject("error").get("message").toString();
+                logger.error("Failed to call OpenAI API. Details: {}:{}", code, message);
+            }
+        }
+        catch (Exception e){
+            logger.error("Fails to read gpt api's error message. Details: {}", e);
+        }
+
+    }
+}
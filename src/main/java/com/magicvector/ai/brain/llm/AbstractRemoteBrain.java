@@ -1,22 +1,78 @@
 package com.magicvector.ai.brain.llm;
 
 import com.magicvector.ai.brain.Brain;
+import okhttp3.OkHttpClient;
 
 
 public abstract class AbstractRemoteBrain implements Brain{
 
+    /**
+     * 配置来源，每次请求使用其当前的快照
+     */
+    private final BrainConfigManager configManager;
 
-    protected long readTimeoutSeconds;
+    /**
+     * 当前使用的HTTP客户端及其对应的配置快照，所有会话共享，仅当超时或代理配置变化时重建
+     */
+    private volatile ConfiguredClient httpClient;
 
-    protected long connectTimeoutSeconds;
+    public AbstractRemoteBrain(){
+        this(BrainConfigManager.getDefault());
+    }
+
+    public AbstractRemoteBrain(BrainConfigManager configManager){
+        this.configManager = configManager;
+    }
+
+    /**
+     * @return 当前的配置快照，一次请求应只获取一次，保证请求的各部分使用同一份配置
+     */
+    protected BrainConfig getConfig(){
+        return configManager.getConfig();
+    }
+
+    protected BrainConfigManager getConfigManager(){
+        return configManager;
+    }
 
-    protected long callTimeoutSeconds;
 
-    public AbstractRemoteBrain(long readTimeoutSeconds, long connectTimeoutSeconds, long callTimeoutSeconds){
-        this.readTimeoutSeconds = readTimeoutSeconds;
-        this.connectTimeoutSeconds = connectTimeoutSeconds;
-        this.callTimeoutSeconds = callTimeoutSeconds;
+    /**
+     * 获取共享的HTTP客户端
+     * @param config 本次请求使用的配置快照
+     * @return 客户端
+     */
+    protected OkHttpClient getHttpClient(BrainConfig config){
+        ConfiguredClient client = this.httpClient;
+        if(client != null && client.config == config){
+            return client.client;
+        }
+        synchronized (this){
+            client = this.httpClient;
+            if(client != null && client.config == config){
+                return client.client;
+            }
+            OkHttpClient okHttpClient = client != null && client.config.isSameClientConfig(config)
+                    ? client.client
+                    : HttpClientFactory.newClient(config.getReadTimeoutSeconds(), config.getConnectTimeoutSeconds(), config.getCallTimeoutSeconds(), config.getProxy());
+            this.httpClient = new ConfiguredClient(config, okHttpClient);
+            return okHttpClient;
+        }
     }
 
 
+    /**
+     * 根据某个配置快照创建的客户端
+     */
+    private static final class ConfiguredClient {
+
+        private final BrainConfig config;
+
+        private final OkHttpClient client;
+
+        private ConfiguredClient(BrainConfig config, OkHttpClient client){
+            this.config = config;
+            this.client = client;
+        }
+    }
+
 }
@@ -0,0 +1,232 @@
+package com.magicvector.ai.brain.llm;
+
+import com.github.tbwork.anole.loader.Anole;
+import com.github.tbwork.anole.loader.util.S;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Objects;
+
+/**
+ * 远端脑配置的不可变快照。
+ * 配置只在加载快照时读取一次，发送请求时直接使用快照中的值；配置变化时由{@link BrainConfigManager}整体替换快照。
+ */
+public final class BrainConfig {
+
+    private final String chatApiUrl;
+
+    private final String apiKey;
+
+    /**
+     * 代理，不使用代理时为null
+     */
+    private final Proxy proxy;
+
+    private final long readTimeoutSeconds;
+
+    private final long connectTimeoutSeconds;
+
+    private final long callTimeoutSeconds;
+
+    private final int maxCompletionTokens;
+
+    private final double temperature;
+
+    private BrainConfig(Builder builder){
+        this.chatApiUrl = builder.chatApiUrl;
+        this.apiKey = builder.apiKey;
+        this.proxy = builder.proxy;
+        this.readTimeoutSeconds = builder.readTimeoutSeconds;
+        this.connectTimeoutSeconds = builder.connectTimeoutSeconds;
+        this.callTimeoutSeconds = builder.callTimeoutSeconds;
+        this.maxCompletionTokens = builder.maxCompletionTokens;
+        this.temperature = builder.temperature;
+    }
+
+    /**
+     * 从Anole配置中加载快照
+     */
+    public static BrainConfig fromAnole(){
+        String chatApiUrl = Anole.getProperty("llm.api.chat.url");
+        if(S.isEmpty(chatApiUrl)){
+            chatApiUrl = Anole.getProperty("API_URL");
+        }
+        String apiKey = Anole.getProperty("AI_API_KEY");
+        if(S.isEmpty(apiKey)){
+            apiKey = Anole.getProperty("OPENAI_API_KEY");
+        }
+        Proxy proxy = null;
+        if(Anole.getBoolProperty("magicgpt.config.network.vpn.enabled", false)){
+            proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(Anole.getProperty("magicgpt.config.network.vpn.host"), Anole.getIntProperty("magicgpt.config.network.vpn.port")));
+        }
+        return new Builder()
+                .setChatApiUrl(chatApiUrl)
+                .setApiKey(apiKey)
+                .setProxy(proxy)
+                .setReadTimeoutSeconds(Anole.getLongProperty("llm.api.timeout.read", 30L))
+                .setConnectTimeoutSeconds(Anole.getLongProperty("llm.api.timeout.connect", 10L))
+                .setCallTimeoutSeconds(Anole.getLongProperty("llm.api.timeout.call", 1000L))
+                .setMaxCompletionTokens(Anole.getIntProperty("llm.chat.response.max.length", 4096))
+                .setTemperature(Anole.getDoubleProperty("llm.chat.temperature", 0.6))
+                .build();
+    }
+
+    /**
+     * @return 以当前快照为初始值的构建器，用于修改部分配置
+     */
+    public Builder toBuilder(){
+        return new Builder()
+                .setChatApiUrl(chatApiUrl)
+                .setApiKey(apiKey)
+                .setProxy(proxy)
+                .setReadTimeoutSeconds(readTimeoutSeconds)
+                .setConnectTimeoutSeconds(connectTimeoutSeconds)
+                .setCallTimeoutSeconds(callTimeoutSeconds)
+                .setMaxCompletionTokens(maxCompletionTokens)
+                .setTemperature(temperature);
+    }
+
+    /**
+     * @return 与另一个快照的HTTP客户端配置（超时和代理）是否相同，相同时可以继续使用原来的客户端
+     */
+    public boolean isSameClientConfig(BrainConfig other){
+        return other != null
+                && Objects.equals(proxy, other.proxy)
+                && readTimeoutSeconds == other.readTimeoutSeconds
+                && connectTimeoutSeconds == other.connectTimeoutSeconds
+                && callTimeoutSeconds == other.callTimeoutSeconds;
+    }
+
+    public String getChatApiUrl() {
+        return chatApiUrl;
+    }
+
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public Proxy getProxy() {
+        return proxy;
+    }
+
+    public long getReadTimeoutSeconds() {
+        return readTimeoutSeconds;
+    }
+
+    public long getConnectTimeoutSeconds() {
+        return connectTimeoutSeconds;
+    }
+
+    public long getCallTimeoutSeconds() {
+        return callTimeoutSeconds;
+    }
+
+    public int getMaxCompletionTokens() {
+        return maxCompletionTokens;
+    }
+
+    public double getTemperature() {
+        return temperature;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BrainConfig)) {
+            return false;
+        }
+        BrainConfig that = (BrainConfig) o;
+        return isSameClientConfig(that)
+                && maxCompletionTokens == that.maxCompletionTokens
+                && Double.compare(temperature, that.temperature) == 0
+                && Objects.equals(chatApiUrl, that.chatApiUrl)
+                && Objects.equals(apiKey, that.apiKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(chatApiUrl, apiKey, proxy, readTimeoutSeconds, connectTimeoutSeconds, callTimeoutSeconds, maxCompletionTokens, temperature);
+    }
+
+    /**
+     * 不输出API KEY
+     */
+    @Override
+    public String toString() {
+        return "BrainConfig{chatApiUrl=" + chatApiUrl
+                + ", apiKey=" + (S.isEmpty(apiKey) ? "<empty>" : "******")
+                + ", proxy=" + proxy
+                + ", readTimeoutSeconds=" + readTimeoutSeconds
+                + ", connectTimeoutSeconds=" + connectTimeoutSeconds
+                + ", callTimeoutSeconds=" + callTimeoutSeconds
+                + ", maxCompletionTokens=" + maxCompletionTokens
+                + ", temperature=" + temperature + "}";
+    }
+
+
+    public static class Builder {
+
+        private String chatApiUrl;
+
+        private String apiKey;
+
+        private Proxy proxy;
+
+        private long readTimeoutSeconds = 30L;
+
+        private long connectTimeoutSeconds = 10L;
+
+        private long callTimeoutSeconds = 1000L;
+
+        private int maxCompletionTokens = 4096;
+
+        private double temperature = 0.6;
+
+        public Builder setChatApiUrl(String chatApiUrl) {
+            this.chatApiUrl = chatApiUrl;
+            return this;
+        }
+
+        public Builder setApiKey(String apiKey) {
+            this.apiKey = apiKey;
+            return this;
+        }
+
+        public Builder setProxy(Proxy proxy) {
+            this.proxy = proxy;
+            return this;
+        }
+
+        public Builder setReadTimeoutSeconds(long readTimeoutSeconds) {
+            this.readTimeoutSeconds = readTimeoutSeconds;
+            return this;
+        }
+
+        public Builder setConnectTimeoutSeconds(long connectTimeoutSeconds) {
+            this.connectTimeoutSeconds = connectTimeoutSeconds;
+            return this;
+        }
+
+        public Builder setCallTimeoutSeconds(long callTimeoutSeconds) {
+            this.callTimeoutSeconds = callTimeoutSeconds;
+            return this;
+        }
+
+        public Builder setMaxCompletionTokens(int maxCompletionTokens) {
+            this.maxCompletionTokens = maxCompletionTokens;
+            return this;
+        }
+
+        public Builder setTemperature(double temperature) {
+            this.temperature = temperature;
+            return this;
+        }
+
+        public BrainConfig build() {
+            return new BrainConfig(this);
+        }
+    }
+
+}
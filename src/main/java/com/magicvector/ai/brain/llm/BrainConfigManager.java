@@ -0,0 +1,121 @@
+package com.magicvector.ai.brain.llm;
+
+import com.github.tbwork.anole.loader.Anole;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 远端脑配置的管理器：持有当前的配置快照，读取时不加锁，配置变化时整体替换并通知监听器。
+ * <p>
+ * 默认管理器从Anole配置中加载快照，配置了magicgpt.config.brain.refresh.seconds时按该间隔在后台重新加载，
+ * 也可以在配置变化后主动调用{@link #reload()}，或通过{@link #update(BrainConfig)}直接设置新的快照。
+ * 已经发出的请求继续使用发出时的快照。
+ * </p>
+ */
+public class BrainConfigManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(BrainConfigManager.class);
+
+    private static volatile BrainConfigManager defaultManager;
+
+    private final Supplier<BrainConfig> loader;
+
+    private volatile BrainConfig config;
+
+    private final List<IBrainConfigListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param loader 加载配置快照的方法，{@link #reload()}时重新调用
+     */
+    public BrainConfigManager(Supplier<BrainConfig> loader){
+        this.loader = loader;
+        this.config = loader.get();
+    }
+
+    /**
+     * 获取从Anole配置加载的默认管理器
+     */
+    public static BrainConfigManager getDefault(){
+        if(defaultManager == null){
+            synchronized (BrainConfigManager.class){
+                if(defaultManager == null){
+                    defaultManager = createDefault();
+                }
+            }
+        }
+        return defaultManager;
+    }
+
+    private static BrainConfigManager createDefault(){
+        BrainConfigManager manager = new BrainConfigManager(BrainConfig::fromAnole);
+        long refreshSeconds = Anole.getLongProperty("magicgpt.config.brain.refresh.seconds", 0L);
+        if (refreshSeconds > 0) {
+            ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "magicgpt-brain-config-refresher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            refresher.scheduleWithFixedDelay(() -> {
+                try {
+                    manager.reload();
+                } catch (Exception e) {
+                    logger.warn("Fail to reload brain config, details: {}", e.getMessage());
+                }
+            }, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+        }
+        return manager;
+    }
+
+    /**
+     * @return 当前的配置快照
+     */
+    public BrainConfig getConfig(){
+        return config;
+    }
+
+    /**
+     * 重新加载配置，与当前快照不同时替换并通知监听器
+     * @return 配置是否发生了变化
+     */
+    public boolean reload(){
+        return update(loader.get());
+    }
+
+    /**
+     * 设置新的配置快照，与当前快照不同时替换并通知监听器，监听器在替换的线程中依次调用
+     * @return 配置是否发生了变化
+     */
+    public synchronized boolean update(BrainConfig newConfig){
+        BrainConfig oldConfig = this.config;
+        if (oldConfig.equals(newConfig)) {
+            return false;
+        }
+        this.config = newConfig;
+        logger.info("远端脑配置已更新：{}", newConfig);
+        // 在锁内按替换的顺序通知
+        for (IBrainConfigListener listener : listeners) {
+            try {
+                listener.onChange(oldConfig, newConfig);
+            } catch (Exception e) {
+                logger.warn("Brain config listener failed, details: {}", e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    public void addListener(IBrainConfigListener listener){
+        listeners.add(listener);
+    }
+
+    public void removeListener(IBrainConfigListener listener){
+        listeners.remove(listener);
+    }
+
+}
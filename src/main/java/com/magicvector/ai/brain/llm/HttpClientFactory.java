@@ -0,0 +1,74 @@
+package com.magicvector.ai.brain.llm;
+
+import com.github.tbwork.anole.loader.Anole;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 远端脑共享的HTTP客户端工厂。
+ * 所有由此创建的客户端共用同一个连接池和调度器，避免每次调用都重新建立TCP/TLS连接和线程。
+ */
+public class HttpClientFactory {
+
+    private static volatile OkHttpClient baseClient;
+
+    /**
+     * 获取共享连接池和调度器的基础客户端，首次使用时根据配置创建。
+     */
+    public static OkHttpClient getBaseClient(){
+        if(baseClient == null){
+            synchronized (HttpClientFactory.class){
+                if(baseClient == null){
+                    baseClient = createBaseClient();
+                }
+            }
+        }
+        return baseClient;
+    }
+
+    /**
+     * 基于共享的基础客户端派生出指定超时与代理的客户端，派生的客户端与基础客户端共用连接池和调度器。
+     * @param readTimeoutSeconds 读取超时(秒)
+     * @param connectTimeoutSeconds 连接超时(秒)
+     * @param callTimeoutSeconds 总超时(秒)
+     * @param proxy 代理，可为空
+     * @return 客户端
+     */
+    public static OkHttpClient newClient(long readTimeoutSeconds, long connectTimeoutSeconds, long callTimeoutSeconds, Proxy proxy){
+        OkHttpClient.Builder builder = getBaseClient().newBuilder();
+        //读取超时
+        builder.readTimeout(readTimeoutSeconds, TimeUnit.SECONDS);
+        //连接超时
+        builder.connectTimeout(connectTimeoutSeconds, TimeUnit.SECONDS);
+        //总超时时间
+        builder.callTimeout(callTimeoutSeconds, TimeUnit.SECONDS);
+        builder.proxy(proxy);
+        return builder.build();
+    }
+
+    private static OkHttpClient createBaseClient(){
+        ConnectionPool connectionPool = new ConnectionPool(
+                Anole.getIntProperty("llm.api.pool.maxIdleConnections", 32),
+                Anole.getLongProperty("llm.api.pool.keepAlive.seconds", 300L),
+                TimeUnit.SECONDS
+        );
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Anole.getIntProperty("llm.api.dispatcher.maxRequests", 512));
+        dispatcher.setMaxRequestsPerHost(Anole.getIntProperty("llm.api.dispatcher.maxRequestsPerHost", 256));
+
+        return new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .dispatcher(dispatcher)
+                // 支持时优先使用HTTP/2，多个流复用同一连接
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .retryOnConnectionFailure(true)
+                .build();
+    }
+
+}
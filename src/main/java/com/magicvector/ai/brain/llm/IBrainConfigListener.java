@@ -0,0 +1,15 @@
+package com.magicvector.ai.brain.llm;
+
+/**
+ * 远端脑配置变化的监听器
+ */
+public interface IBrainConfigListener {
+
+    /**
+     * 配置快照被替换后调用，调用时新的快照已经生效
+     * @param oldConfig 原来的快照
+     * @param newConfig 新的快照
+     */
+    void onChange(BrainConfig oldConfig, BrainConfig newConfig);
+
+}
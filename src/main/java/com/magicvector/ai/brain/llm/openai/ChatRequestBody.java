@@ -0,0 +1,101 @@
+package com.magicvector.ai.brain.llm.openai;
+
+import com.magicvector.ai.util.MessageUtil;
+import com.magicvector.ai.wizards.model.MagicMessage;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 对话接口的请求体。
+ * 固定字段预先编码为请求头部，消息部分直接写入各消息缓存的JSON片段，
+ * 构建请求时不再复制和序列化整个对话，耗时只与新增的消息有关。
+ * 创建时保存片段的快照，OkHttp重试时可以重复写出相同的内容。
+ */
+public class ChatRequestBody extends RequestBody {
+
+    private static final MediaType JSON_TYPE = MediaType.parse("application/json");
+
+    private static final byte[] MESSAGES_END = "]}".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] head;
+
+    private final byte[][] fragments;
+
+    private final long contentLength;
+
+    /**
+     * @param head {@link #encodeHead}编码的请求头部
+     * @param messages 对话中的消息
+     */
+    public ChatRequestBody(byte[] head, List<MagicMessage> messages){
+        this.head = head;
+        this.fragments = new byte[messages.size()][];
+        long length = head.length + MESSAGES_END.length + Math.max(0, fragments.length - 1);
+        for (int i = 0; i < fragments.length; i++) {
+            fragments[i] = messages.get(i).getJsonFragment();
+            length += fragments[i].length;
+        }
+        this.contentLength = length;
+    }
+
+    /**
+     * 编码请求中消息之前的固定字段，以"messages":[结尾
+     */
+    public static byte[] encodeHead(String model, int maxCompletionTokens, double temperature, boolean stream){
+        StringBuilder sb = new StringBuilder(128).append('{');
+        if (model != null) {
+            sb.append("\"model\":");
+            MessageUtil.appendJsonString(sb, model);
+            sb.append(',');
+        }
+        sb.append("\"max_completion_tokens\":").append(maxCompletionTokens)
+                .append(",\"temperature\":").append(temperature)
+                .append(",\"stream\":").append(stream)
+                .append(",\"messages\":[");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public MediaType contentType() {
+        return JSON_TYPE;
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        sink.write(head);
+        for (int i = 0; i < fragments.length; i++) {
+            if (i > 0) {
+                sink.writeByte(',');
+            }
+            sink.write(fragments[i]);
+        }
+        sink.write(MESSAGES_END);
+    }
+
+    /**
+     * @return 完整的请求体，仅用于日志
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder((int) Math.min(contentLength, Integer.MAX_VALUE - 8));
+        sb.append(new String(head, StandardCharsets.UTF_8));
+        for (int i = 0; i < fragments.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(new String(fragments[i], StandardCharsets.UTF_8));
+        }
+        return sb.append("]}").toString();
+    }
+
+}
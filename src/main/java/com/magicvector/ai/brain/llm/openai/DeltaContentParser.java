@@ -0,0 +1,286 @@
+package com.magicvector.ai.brain.llm.openai;
+
+import com.magicvector.ai.exceptions.MessageStreamException;
+
+/**
+ * 流式JSON扫描器：直接在UTF-8字节上扫描OpenAI兼容的流式片段，
+ * 只提取 choices[].delta.content 的文本，其余字段跳过，不构建对象图。
+ * 非线程安全，可在同一个流中反复使用。
+ */
+public class DeltaContentParser {
+
+    private static final byte[] CHOICES = {'c', 'h', 'o', 'i', 'c', 'e', 's'};
+    private static final byte[] DELTA = {'d', 'e', 'l', 't', 'a'};
+    private static final byte[] CONTENT = {'c', 'o', 'n', 't', 'e', 'n', 't'};
+
+    private byte[] bytes;
+    private int position;
+    private int end;
+
+    /**
+     * 最近一次读取的成员名在字节数组中的范围
+     */
+    private int keyStart;
+    private int keyEnd;
+
+    /**
+     * 解析一个流式片段，将其中所有choice的delta内容追加到输出中
+     * @param bytes 片段数据
+     * @param offset 起始位置
+     * @param length 长度
+     * @param output 输出
+     */
+    public void parse(byte[] bytes, int offset, int length, StringBuilder output) {
+        this.bytes = bytes;
+        this.position = offset;
+        this.end = offset + length;
+        try {
+            skipWhitespace();
+            if (peek() != '{') {
+                skipValue();
+                return;
+            }
+            position++;
+            while (nextMember()) {
+                if (keyEquals(CHOICES) && peekValue() == '[') {
+                    parseChoices(output);
+                } else {
+                    skipValue();
+                }
+            }
+        } finally {
+            this.bytes = null;
+        }
+    }
+
+    private void parseChoices(StringBuilder output) {
+        position++;
+        while (nextElement()) {
+            if (peek() == '{') {
+                position++;
+                while (nextMember()) {
+                    if (keyEquals(DELTA) && peekValue() == '{') {
+                        parseDelta(output);
+                    } else {
+                        skipValue();
+                    }
+                }
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+    private void parseDelta(StringBuilder output) {
+        position++;
+        while (nextMember()) {
+            if (keyEquals(CONTENT) && peekValue() == '"') {
+                readString(output);
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+    /**
+     * 读取对象的下一个成员名并停在冒号之后
+     * @return 对象结束时返回false
+     */
+    private boolean nextMember() {
+        skipWhitespace();
+        byte b = peek();
+        if (b == ',') {
+            position++;
+            skipWhitespace();
+            b = peek();
+        }
+        if (b == '}') {
+            position++;
+            return false;
+        }
+        if (b != '"') {
+            throw error("expect member name");
+        }
+        position++;
+        keyStart = position;
+        skipStringBody();
+        keyEnd = position - 1;
+        skipWhitespace();
+        if (peek() != ':') {
+            throw error("expect ':'");
+        }
+        position++;
+        return true;
+    }
+
+    /**
+     * 移动到数组的下一个元素
+     * @return 数组结束时返回false
+     */
+    private boolean nextElement() {
+        skipWhitespace();
+        byte b = peek();
+        if (b == ',') {
+            position++;
+            skipWhitespace();
+            b = peek();
+        }
+        if (b == ']') {
+            position++;
+            return false;
+        }
+        return true;
+    }
+
+    private boolean keyEquals(byte[] expected) {
+        if (keyEnd - keyStart != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (bytes[keyStart + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte peekValue() {
+        skipWhitespace();
+        return peek();
+    }
+
+    private void skipValue() {
+        skipWhitespace();
+        byte b = peek();
+        if (b == '"') {
+            position++;
+            skipStringBody();
+            return;
+        }
+        if (b == '{' || b == '[') {
+            int depth = 0;
+            while (position < end) {
+                byte c = bytes[position++];
+                if (c == '"') {
+                    skipStringBody();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (--depth == 0) {
+                        return;
+                    }
+                }
+            }
+            throw error("unclosed structure");
+        }
+        // 数字、true、false、null
+        while (position < end) {
+            byte c = bytes[position];
+            if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    /**
+     * 跳过字符串内容，调用前已越过起始引号，结束后位于结束引号之后
+     */
+    private void skipStringBody() {
+        while (position < end) {
+            byte c = bytes[position++];
+            if (c == '\\') {
+                position++;
+            } else if (c == '"') {
+                return;
+            }
+        }
+        throw error("unclosed string");
+    }
+
+    /**
+     * 解码字符串并追加到输出，调用时位于起始引号
+     */
+    private void readString(StringBuilder output) {
+        position++;
+        while (position < end) {
+            int c = bytes[position++] & 0xFF;
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                readEscape(output);
+            } else if (c < 0x80) {
+                output.append((char) c);
+            } else if (c < 0xE0) {
+                output.append((char) (((c & 0x1F) << 6) | continuation()));
+            } else if (c < 0xF0) {
+                output.append((char) (((c & 0x0F) << 12) | (continuation() << 6) | continuation()));
+            } else {
+                int codePoint = ((c & 0x07) << 18) | (continuation() << 12) | (continuation() << 6) | continuation();
+                output.append(Character.highSurrogate(codePoint)).append(Character.lowSurrogate(codePoint));
+            }
+        }
+        throw error("unclosed string");
+    }
+
+    private int continuation() {
+        if (position >= end) {
+            throw error("truncated utf-8 sequence");
+        }
+        return bytes[position++] & 0x3F;
+    }
+
+    private void readEscape(StringBuilder output) {
+        if (position >= end) {
+            throw error("truncated escape");
+        }
+        byte c = bytes[position++];
+        switch (c) {
+            case 'n': output.append('\n'); break;
+            case 't': output.append('\t'); break;
+            case 'r': output.append('\r'); break;
+            case 'b': output.append('\b'); break;
+            case 'f': output.append('\f'); break;
+            case 'u':
+                if (position + 4 > end) {
+                    throw error("truncated unicode escape");
+                }
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(bytes[position++], 16);
+                    if (digit < 0) {
+                        throw error("invalid unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                output.append((char) value);
+                break;
+            default:
+                // \" \\ \/
+                output.append((char) c);
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < end) {
+            byte b = bytes[position];
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    private byte peek() {
+        if (position >= end) {
+            throw error("unexpected end of data");
+        }
+        return bytes[position];
+    }
+
+    private MessageStreamException error(String reason) {
+        return new MessageStreamException("Fail to parse LLM API's steam response: " + reason + " at " + position);
+    }
+
+}
@@ -1,48 +1,58 @@
 package com.magicvector.ai.brain.llm.openai;
 
 import com.github.tbwork.anole.loader.util.S;
+import com.magicvector.ai.brain.IChunkReader;
 import com.magicvector.ai.brain.llm.openai.model.*;
 import com.magicvector.ai.exceptions.Assert;
 import com.magicvector.ai.exceptions.MagicGPTGeneralException;
 import com.magicvector.ai.exceptions.MessageStreamException;
 import com.magicvector.ai.exceptions.RemoteLLMCallException;
 import com.magicvector.ai.wizards.model.MagicChat;
-import com.magicvector.ai.wizards.model.MagicMessage;
-import com.github.tbwork.anole.loader.Anole;
 import com.github.tbwork.anole.loader.util.JSON;
 import com.magicvector.ai.brain.llm.AbstractRemoteBrain;
+import com.magicvector.ai.brain.llm.BrainConfig;
+import com.magicvector.ai.brain.llm.BrainConfigManager;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.net.InetSocketAddress;
-import java.net.Proxy;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class GeneralBrain extends AbstractRemoteBrain {
 
     private static final Logger logger = LoggerFactory.getLogger(GeneralBrain.class);
 
-    private String chatApiUrl;
+    /**
+     * 错误响应放入异常信息的最大字符数
+     */
+    private static final int MAX_ERROR_BODY_CHARS = 2000;
+
     private String modelName;
 
+    /**
+     * 按配置快照预先编码的请求头部
+     */
+    private volatile EncodedHead encodedHead;
+
     public GeneralBrain(String modelName) {
-        super(
-                Anole.getLongProperty("llm.api.timeout.read", 30L),
-                Anole.getLongProperty("llm.api.timeout.connect", 10L),
-                Anole.getLongProperty("llm.api.timeout.call", 1000L)
-        );
-        String llmApiUrl = Anole.getProperty("llm.api.chat.url");
-        if(S.isEmpty(llmApiUrl)){
-            llmApiUrl = Anole.getProperty("API_URL");
-        }
-        Assert.judge(S.isNotEmpty(llmApiUrl), "未提供有效的LLM API地址");
-        this.chatApiUrl = llmApiUrl;
+        this(modelName, BrainConfigManager.getDefault());
+    }
+
+    /**
+     * @param modelName 模型名称
+     * @param configManager 配置来源，例如指向另一个服务地址的配置
+     */
+    public GeneralBrain(String modelName, BrainConfigManager configManager) {
+        super(configManager);
+        Assert.judge(S.isNotEmpty(configManager.getConfig().getChatApiUrl()), "未提供有效的LLM API地址");
         this.modelName = modelName;
     }
 
@@ -77,9 +87,23 @@ public class GeneralBrain extends AbstractRemoteBrain {
         }
     }
 
+    @Override
+    public IChunkReader openChunkReader(InputStream inputStream) {
+        return new SseChunkReader(inputStream);
+    }
+
     @Override
     public String response(MagicChat magicChat) {
-        Response response = this.getOpenAIResponse(magicChat, false);
+        Response response = this.getOpenAIResponse(this.prepareCall(magicChat, false));
+        return readResponse(response);
+    }
+
+    @Override
+    public CompletableFuture<String> responseAsync(MagicChat magicChat) {
+        return this.getOpenAIResponseAsync(magicChat, false).thenApply(this::readResponse);
+    }
+
+    private String readResponse(Response response){
         // 如果响应成功，获取返回内容
         if (response.isSuccessful()) {
             try {
@@ -95,6 +119,30 @@ public class GeneralBrain extends AbstractRemoteBrain {
         }
     }
 
+    /**
+     * 流式请求的响应不是成功的状态码，或者是HTML页面（例如网关返回的502、429页面）时，读出内容并抛出异常，
+     * 而不是当作没有内容的SSE流
+     */
+    private Response checkStreamResponse(Response response){
+        String contentType = response.header("Content-Type");
+        if (response.isSuccessful() && (contentType == null || !contentType.toLowerCase().startsWith("text/html"))) {
+            return response;
+        }
+        String body;
+        try {
+            body = response.body() == null ? "" : response.body().string();
+        } catch (IOException e) {
+            body = "<unreadable: " + e.getMessage() + ">";
+        } finally {
+            response.close();
+        }
+        if (body.length() > MAX_ERROR_BODY_CHARS) {
+            body = body.substring(0, MAX_ERROR_BODY_CHARS) + "...";
+        }
+        logger.error("Failed to call LLM API, code: {}, details: {}", response.code(), body);
+        throw new RemoteLLMCallException(response.code(), body);
+    }
+
     private String getResponseContent(String json){
         GPTResponse responseJson = JSON.parseObject(json, GPTResponse.class);
         if(!responseJson.getChoices().isEmpty()){
@@ -110,76 +158,191 @@ public class GeneralBrain extends AbstractRemoteBrain {
 
     @Override
     public InputStream process(MagicChat magicChat) {
-        Response response = this.getOpenAIResponse(magicChat, true);
-        return response.body().byteStream();
+        Call call = this.prepareCall(magicChat, true);
+        return new ResponseStream(call, checkStreamResponse(this.getOpenAIResponse(call)).body().byteStream());
     }
 
+    @Override
+    public CompletableFuture<InputStream> processAsync(MagicChat magicChat) {
+        Call call;
+        try {
+            call = this.prepareCall(magicChat, true);
+        } catch (RemoteLLMCallException e) {
+            CompletableFuture<InputStream> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        CompletableFuture<Response> responseFuture = this.getOpenAIResponseAsync(call);
+        CompletableFuture<InputStream> future = responseFuture.thenApply(response -> new ResponseStream(call, checkStreamResponse(response).body().byteStream()));
+        // 取消时同时取消HTTP调用
+        future.whenComplete((inputStream, e) -> {
+            if(future.isCancelled()){
+                responseFuture.cancel(true);
+            }
+        });
+        return future;
+    }
+
+
 
+    private Call prepareCall(MagicChat magicChat, Boolean stream){
+        try {
+            return this.newCall(magicChat, stream);
+        } catch (Exception e) {
+            logger.error("Fails to call LLM API. Details: {}", e);
+            throw new RemoteLLMCallException(e.getMessage());
+        }
+    }
 
-    private Response getOpenAIResponse(MagicChat magicChat, Boolean stream){
+    private Response getOpenAIResponse(Call call){
         try {
+            // Send the request and get the response
+            return call.execute();
+        } catch (Exception e) {
+            logger.error("Fails to call LLM API. Details: {}", e);
+            throw new RemoteLLMCallException(e.getMessage());
+        }
+    }
 
-            OkHttpClient.Builder builder = new OkHttpClient.Builder();
+    private CompletableFuture<Response> getOpenAIResponseAsync(MagicChat magicChat, Boolean stream){
+        try {
+            return this.getOpenAIResponseAsync(this.prepareCall(magicChat, stream));
+        } catch (RemoteLLMCallException e) {
+            CompletableFuture<Response> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
 
-            //读取超时
-            builder.readTimeout(this.readTimeoutSeconds, TimeUnit.SECONDS);
-            //连接超时
-            builder.connectTimeout(this.connectTimeoutSeconds, TimeUnit.SECONDS);
-            //总超时时间
-            builder.callTimeout(this.callTimeoutSeconds, TimeUnit.SECONDS);
+    /**
+     * 通过OkHttp的异步调度发送请求，等待响应时不占用调用线程。
+     * 取消返回的Future会同时取消底层的HTTP调用。
+     */
+    private CompletableFuture<Response> getOpenAIResponseAsync(Call call){
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                logger.error("Fails to call LLM API. Details: {}", e);
+                future.completeExceptionally(new RemoteLLMCallException(e.getMessage()));
+            }
 
-            if(Anole.getBoolProperty("magicgpt.config.network.vpn.enabled", false)){
-                Proxy vpn = new Proxy(Proxy.Type.HTTP,new InetSocketAddress(Anole.getProperty("magicgpt.config.network.vpn.host"), Anole.getIntProperty("magicgpt.config.network.vpn.port")));
-                builder.proxy(vpn);
+            @Override
+            public void onResponse(Call call, Response response) {
+                if(!future.complete(response)){
+                    // 已被取消
+                    response.close();
+                }
+            }
+        });
+        future.whenComplete((response, e) -> {
+            if(future.isCancelled()){
+                call.cancel();
             }
+        });
+        return future;
+    }
 
-            OkHttpClient httpClient = builder.build();
-            okhttp3.MediaType mediaType = okhttp3.MediaType.parse("application/json");
-            GPTRequest gptRequest = buildChatGPTRequest(magicChat, stream);
-            logger.debug(" LLM Request：\n{}",  JSON.toJSONString(gptRequest));
-            okhttp3.RequestBody requestBody = okhttp3.RequestBody.create(mediaType, JSON.toJSONString(gptRequest));
+    private Call newCall(MagicChat magicChat, Boolean stream){
+        // 整个请求使用同一份配置快照
+        BrainConfig config = this.getConfig();
+        String apiKey = config.getApiKey();
+        Assert.judge(S.isNotEmpty(apiKey), "AI_API_KEY is not set yet.");
 
-            String apiKey = Anole.getProperty("AI_API_KEY");
-            if(S.isEmpty(apiKey)){
-                apiKey = Anole.getProperty("OPENAI_API_KEY");
-            }
-            Assert.judge(S.isNotEmpty(apiKey), "AI_API_KEY is not set yet.");
-            // Create the request
-            Request request = new Request.Builder()
-                    .url(this.chatApiUrl)
-                    .addHeader("Content-Type", "application/json")
-                    .addHeader("Authorization", "Bearer "+ apiKey)
-                    .post(requestBody)
-                    .build();
+        // 共享的客户端，复用连接池和调度器
+        OkHttpClient httpClient = this.getHttpClient(config);
+        ChatRequestBody requestBody = new ChatRequestBody(getEncodedHead(config, stream), magicChat.getChatContent());
+        if(logger.isDebugEnabled()){
+            logger.debug(" LLM Request：\n{}", requestBody);
+        }
 
-            // Send the request and get the response
-            return httpClient.newCall(request).execute();
+        // Create the request
+        Request request = new Request.Builder()
+                .url(config.getChatApiUrl())
+                .addHeader("Content-Type", "application/json")
+                .addHeader("Authorization", "Bearer "+ apiKey)
+                .post(requestBody)
+                .build();
+        return httpClient.newCall(request);
+    }
 
-        } catch (Exception e) {
-            logger.error("Fails to call LLM API. Details: {}", e);
-            throw new RemoteLLMCallException(e.getMessage());
+    /**
+     * 获取请求中消息之前的固定部分，配置快照不变时直接使用缓存的编码结果
+     */
+    private byte[] getEncodedHead(BrainConfig config, Boolean stream) {
+        EncodedHead head = this.encodedHead;
+        if (head == null || head.config != config) {
+            head = new EncodedHead(config,
+                    ChatRequestBody.encodeHead(modelName, config.getMaxCompletionTokens(), config.getTemperature(), true),
+                    ChatRequestBody.encodeHead(modelName, config.getMaxCompletionTokens(), config.getTemperature(), false));
+            this.encodedHead = head;
         }
+        return Boolean.TRUE.equals(stream) ? head.streamHead : head.plainHead;
     }
 
+
     /**
-     * 构建chatGPT 请求参数
-     * @param magicChat
-     * @return
+     * 某个配置快照下编码的请求头部
      */
-    private GPTRequest buildChatGPTRequest(MagicChat magicChat, Boolean stream) {
-        GPTRequest gptRequest = new GPTRequest();
-        gptRequest.setModel(modelName);
-        gptRequest.setMaxCompletionTokens(Anole.getIntProperty("llm.chat.response.max.length", 4096));
-        gptRequest.setTemperature(Anole.getDoubleProperty("llm.chat.temperature", 0.6));
-        gptRequest.setStream(stream);
-        List<GPTMessage> messages = new ArrayList<>();
-        for (MagicMessage magicMessage : magicChat.getChatContent()) {
-            GPTMessage GPTMessage = new GPTMessage(magicMessage.getRole(), magicMessage.getContent());
-            messages.add(GPTMessage);
+    private static final class EncodedHead {
+
+        private final BrainConfig config;
+
+        private final byte[] streamHead;
+
+        private final byte[] plainHead;
+
+        private EncodedHead(BrainConfig config, byte[] streamHead, byte[] plainHead) {
+            this.config = config;
+            this.streamHead = streamHead;
+            this.plainHead = plainHead;
         }
-        gptRequest.setMessages(messages);
-        return gptRequest;
     }
 
 
+
+    /**
+     * 流式响应的输出流。关闭时如果另一个线程正阻塞在读取上（例如放弃较慢的对冲请求），取消HTTP调用，
+     * 断开连接以结束阻塞的读取，远端也不再继续生成；其他情况按正常方式关闭，不影响连接的复用。
+     */
+    private static class ResponseStream extends FilterInputStream {
+
+        private final Call call;
+
+        private final AtomicInteger readers = new AtomicInteger(0);
+
+        private ResponseStream(Call call, InputStream in){
+            super(in);
+            this.call = call;
+        }
+
+        @Override
+        public int read() throws IOException {
+            readers.incrementAndGet();
+            try {
+                return super.read();
+            } finally {
+                readers.decrementAndGet();
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            readers.incrementAndGet();
+            try {
+                return super.read(b, off, len);
+            } finally {
+                readers.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(readers.get() > 0){
+                call.cancel();
+            }
+            super.close();
+        }
+    }
+
 }
@@ -0,0 +1,67 @@
+package com.magicvector.ai.brain.llm.openai;
+
+import com.magicvector.ai.brain.IChunkReader;
+import com.magicvector.ai.brain.llm.sse.SseEventReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * OpenAI兼容接口的流式片段读取器：按字节解码SSE事件，再从事件数据中直接扫描出delta内容。
+ */
+public class SseChunkReader implements IChunkReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(SseChunkReader.class);
+
+    private static final byte[] DONE = {'[', 'D', 'O', 'N', 'E', ']'};
+
+    private final InputStream inputStream;
+
+    private final SseEventReader eventReader;
+
+    private final DeltaContentParser contentParser = new DeltaContentParser();
+
+    private final StringBuilder content = new StringBuilder();
+
+    private boolean started = false;
+
+    private boolean failed = false;
+
+    public SseChunkReader(InputStream inputStream){
+        this.inputStream = inputStream;
+        this.eventReader = new SseEventReader(inputStream);
+    }
+
+    @Override
+    public String nextChunk() throws IOException {
+        if(!started){
+            started = true;
+            if(eventReader.peekNonWhitespace() == '{'){
+                // 不是SSE流，而是接口返回的错误信息
+                logger.error("Failed to call LLM API. Details: {}", eventReader.readRemaining());
+                failed = true;
+                return null;
+            }
+        }
+        while (eventReader.nextEvent()) {
+            if(eventReader.dataEquals(DONE)){
+                //结束了
+                inputStream.close();
+                return null;
+            }
+            content.setLength(0);
+            contentParser.parse(eventReader.getData(), 0, eventReader.getDataLength(), content);
+            if(content.length() > 0){
+                return content.toString();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isFailed() {
+        return failed;
+    }
+}
@@ -0,0 +1,232 @@
+package com.magicvector.ai.brain.llm.sse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 按字节解析Server-Sent Events流的读取器。
+ * <p>
+ * 遵循SSE规范：行以CRLF、LF或CR结尾；以冒号开头的行为注释；同一事件中的多行data以换行符拼接；
+ * 空行表示事件结束。只关心data字段，其余字段（event、id、retry）会被忽略。
+ * 事件数据保存在内部复用的字节数组中，读取过程中不产生逐行、逐事件的对象分配。
+ * </p>
+ * 非线程安全，每个流使用独立的实例。
+ */
+public class SseEventReader {
+
+    private static final byte[] DATA_FIELD = {'d', 'a', 't', 'a'};
+
+    private static final int LINE_START = 0;
+    private static final int FIELD = 1;
+    private static final int VALUE_FIRST = 2;
+    private static final int VALUE = 3;
+    private static final int COMMENT = 4;
+
+    private final InputStream inputStream;
+
+    private final byte[] buffer = new byte[8192];
+    private int position = 0;
+    private int limit = 0;
+
+    private byte[] data = new byte[1024];
+    private int dataLength = 0;
+
+    private final byte[] field = new byte[DATA_FIELD.length + 1];
+    private int fieldLength = 0;
+
+    private int state = LINE_START;
+    private boolean skipLineFeed = false;
+    private boolean finished = false;
+
+    public SseEventReader(InputStream inputStream){
+        this.inputStream = inputStream;
+    }
+
+    /**
+     * 读取下一个事件
+     * @return 读到事件返回true，流结束返回false
+     * @throws IOException
+     */
+    public boolean nextEvent() throws IOException {
+        dataLength = 0;
+        while (!finished) {
+            if (position == limit && !fill()) {
+                finished = true;
+                // 流结束时仍有未以空行结尾的数据，宽松处理为一个完整事件
+                return dispatch();
+            }
+            byte b = buffer[position++];
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (b == '\n') {
+                    continue;
+                }
+            }
+            boolean lineEnd = b == '\n' || b == '\r';
+            if (b == '\r') {
+                skipLineFeed = true;
+            }
+            switch (state) {
+                case LINE_START:
+                    if (lineEnd) {
+                        if (dispatch()) {
+                            return true;
+                        }
+                    } else if (b == ':') {
+                        state = COMMENT;
+                    } else {
+                        fieldLength = 0;
+                        appendField(b);
+                        state = FIELD;
+                    }
+                    break;
+                case FIELD:
+                    if (lineEnd) {
+                        // 只有字段名没有值
+                        if (isDataField()) {
+                            appendData((byte) '\n');
+                        }
+                        state = LINE_START;
+                    } else if (b == ':') {
+                        state = VALUE_FIRST;
+                    } else {
+                        appendField(b);
+                    }
+                    break;
+                case VALUE_FIRST:
+                case VALUE:
+                    if (lineEnd) {
+                        if (isDataField()) {
+                            appendData((byte) '\n');
+                        }
+                        state = LINE_START;
+                    } else if (state == VALUE_FIRST && b == ' ') {
+                        // 冒号后的第一个空格不属于值
+                        state = VALUE;
+                    } else {
+                        state = VALUE;
+                        if (isDataField()) {
+                            appendData(b);
+                        }
+                    }
+                    break;
+                default:
+                    if (lineEnd) {
+                        state = LINE_START;
+                    }
+                    break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 当前事件的数据，有效长度见{@link #getDataLength()}
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * 判断当前事件的数据是否与给定的ASCII文本相同，例如 [DONE]
+     */
+    public boolean dataEquals(byte[] expected) {
+        if (expected.length != dataLength) {
+            return false;
+        }
+        for (int i = 0; i < dataLength; i++) {
+            if (data[i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 在不消费数据的前提下，查看流中下一个非空白字节
+     * @return 下一个非空白字节，流结束时返回-1
+     * @throws IOException
+     */
+    public int peekNonWhitespace() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            byte b = buffer[position];
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return b;
+            }
+            position++;
+        }
+    }
+
+    /**
+     * 将流中剩余的内容全部读出，用于读取非SSE格式的错误响应。
+     */
+    public String readRemaining() throws IOException {
+        ByteArrayOutputStream remaining = new ByteArrayOutputStream();
+        while (position < limit || fill()) {
+            remaining.write(buffer, position, limit - position);
+            position = limit;
+        }
+        finished = true;
+        return new String(remaining.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private boolean dispatch() {
+        state = LINE_START;
+        if (dataLength == 0) {
+            return false;
+        }
+        if (data[dataLength - 1] == '\n') {
+            // 去掉最后一行data追加的换行符
+            dataLength--;
+        }
+        return true;
+    }
+
+    private boolean fill() throws IOException {
+        int read = inputStream.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            position = 0;
+            limit = 0;
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    private void appendField(byte b) {
+        if (fieldLength < field.length) {
+            field[fieldLength++] = b;
+        }
+    }
+
+    private boolean isDataField() {
+        if (fieldLength != DATA_FIELD.length) {
+            return false;
+        }
+        for (int i = 0; i < DATA_FIELD.length; i++) {
+            if (field[i] != DATA_FIELD[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void appendData(byte b) {
+        if (dataLength == data.length) {
+            data = Arrays.copyOf(data, data.length << 1);
+        }
+        data[dataLength++] = b;
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.magicvector.ai.brain.routing;
+
+import com.magicvector.ai.brain.Brain;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 路由中的一个端点：被包装的大脑及其被动统计的负载、延迟和健康状态。
+ * <p>
+ * 首字节延迟使用指数加权移动平均（EWMA），长时间没有新样本时估计值随时间衰减，
+ * 因此曾经变慢的端点过一段时间后会重新得到请求。连续失败达到阈值时端点被暂时剔除，
+ * 剔除时间随连续剔除的次数翻倍（最多8倍），一次成功即恢复。
+ * </p>
+ */
+public class BrainEndpoint {
+
+    private static final Logger logger = LoggerFactory.getLogger(BrainEndpoint.class);
+
+    private final String name;
+
+    private final Brain brain;
+
+    private final int weight;
+
+    /**
+     * 进行中的请求数
+     */
+    private final AtomicInteger outstanding = new AtomicInteger(0);
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger(0);
+
+    private double ewmaTtfbMillis = 0D;
+
+    private long lastSampleMillis = 0L;
+
+    private int ejections = 0;
+
+    private volatile long ejectedUntil = 0L;
+
+    public BrainEndpoint(String name, Brain brain, int weight){
+        this.name = name;
+        this.brain = brain;
+        this.weight = Math.max(1, weight);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Brain getBrain() {
+        return brain;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @param decayMillis 没有新样本时估计值衰减的时间常数
+     * @return 衰减后的首字节延迟估计（毫秒），没有样本时为0
+     */
+    public synchronized double getEwmaTtfbMillis(long decayMillis) {
+        if (lastSampleMillis == 0L || decayMillis <= 0) {
+            return ewmaTtfbMillis;
+        }
+        long idle = System.currentTimeMillis() - lastSampleMillis;
+        return idle <= 0 ? ewmaTtfbMillis : ewmaTtfbMillis * Math.exp(-(double) idle / decayMillis);
+    }
+
+    /**
+     * @return 是否未被剔除
+     */
+    public boolean isAvailable() {
+        return System.currentTimeMillis() >= ejectedUntil;
+    }
+
+    void onStart() {
+        outstanding.incrementAndGet();
+    }
+
+    synchronized void onFirstByte(long elapsedNanos, double alpha) {
+        double sample = elapsedNanos / 1_000_000D;
+        ewmaTtfbMillis = lastSampleMillis == 0L ? sample : ewmaTtfbMillis + alpha * (sample - ewmaTtfbMillis);
+        lastSampleMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * 请求在收到首字节之前被放弃，已等待的时间是首字节延迟的下限，只在它大于当前估计值时计入
+     */
+    synchronized void onStall(long elapsedNanos, double alpha) {
+        if (elapsedNanos / 1_000_000D > ewmaTtfbMillis) {
+            onFirstByte(elapsedNanos, alpha);
+        }
+    }
+
+    /**
+     * 请求被调用方取消，不影响健康状态
+     */
+    void onCancel() {
+        outstanding.decrementAndGet();
+    }
+
+    /**
+     * 请求结束
+     * @param success 是否成功
+     * @param failureThreshold 剔除前允许的连续失败次数
+     * @param ejectionMillis 首次剔除的时长
+     */
+    void onFinish(boolean success, int failureThreshold, long ejectionMillis) {
+        outstanding.decrementAndGet();
+        if (success) {
+            if (consecutiveFailures.getAndSet(0) > 0) {
+                synchronized (this) {
+                    ejections = 0;
+                }
+            }
+            return;
+        }
+        if (consecutiveFailures.incrementAndGet() < failureThreshold) {
+            return;
+        }
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now >= ejectedUntil) {
+                ejections++;
+                long duration = ejectionMillis << Math.min(ejections - 1, 3);
+                ejectedUntil = now + duration;
+                logger.warn("大脑端点{}连续失败{}次，剔除{}ms。", name, consecutiveFailures.get(), duration);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BrainEndpoint{" + name + ", weight=" + weight + ", outstanding=" + outstanding.get() + "}";
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.magicvector.ai.brain.routing;
+
+import com.github.tbwork.anole.loader.Anole;
+
+/**
+ * 对冲请求的策略：流式请求在一定时间内没有收到首字节时，再发出一个相同的请求，使用先返回的一个。
+ * <p>
+ * 等待的时间取最近首字节延迟的百分位数（默认P95），样本不足时使用初始值，并限制在上下限之间，
+ * 只有少数慢请求会触发对冲。对冲的次数由令牌桶限制在请求数的一定比例内，
+ * 远端整体变慢时不会使请求量成倍增加。
+ * </p>
+ */
+public class HedgePolicy {
+
+    private final LatencyHistogram histogram;
+
+    private final double percentile;
+
+    private final long minSamples;
+
+    private final long initialDelayMillis;
+
+    private final long minDelayMillis;
+
+    private final long maxDelayMillis;
+
+    /**
+     * 每个请求增加的对冲令牌数，即允许的对冲比例
+     */
+    private final double ratio;
+
+    private final double burst;
+
+    private double tokens;
+
+    /**
+     * @param percentile 等待时间所取的百分位，0到100之间
+     * @param minSamples 使用百分位数之前至少需要的样本数
+     * @param initialDelayMillis 样本不足时的等待时间
+     * @param minDelayMillis 等待时间的下限
+     * @param maxDelayMillis 等待时间的上限
+     * @param ratio 对冲请求最多占全部请求的比例
+     * @param burst 短时间内最多连续对冲的次数
+     * @param windowMillis 延迟统计窗口的时长
+     */
+    public HedgePolicy(double percentile, long minSamples, long initialDelayMillis, long minDelayMillis, long maxDelayMillis,
+                       double ratio, double burst, long windowMillis){
+        this.histogram = new LatencyHistogram(windowMillis);
+        this.percentile = percentile;
+        this.minSamples = Math.max(1L, minSamples);
+        this.initialDelayMillis = initialDelayMillis;
+        this.minDelayMillis = Math.max(0L, minDelayMillis);
+        this.maxDelayMillis = Math.max(this.minDelayMillis, maxDelayMillis);
+        this.ratio = Math.max(0D, ratio);
+        this.burst = Math.max(1D, burst);
+        this.tokens = this.burst;
+    }
+
+    /**
+     * 从Anole配置中创建策略
+     */
+    public static HedgePolicy fromAnole(){
+        return new HedgePolicy(
+                Anole.getDoubleProperty("magicgpt.config.brain.hedge.percentile", 95D),
+                Anole.getLongProperty("magicgpt.config.brain.hedge.minSamples", 20L),
+                Anole.getLongProperty("magicgpt.config.brain.hedge.delay.initial.ms", 3000L),
+                Anole.getLongProperty("magicgpt.config.brain.hedge.delay.min.ms", 500L),
+                Anole.getLongProperty("magicgpt.config.brain.hedge.delay.max.ms", 10000L),
+                Anole.getDoubleProperty("magicgpt.config.brain.hedge.max.ratio", 0.1),
+                Anole.getDoubleProperty("magicgpt.config.brain.hedge.max.burst", 10D),
+                Anole.getLongProperty("magicgpt.config.brain.hedge.window.seconds", 60L) * 1000L);
+    }
+
+    /**
+     * @return 发出对冲请求前等待首字节的时间（毫秒）
+     */
+    public long getDelayMillis() {
+        long delay = histogram.getCount() >= minSamples ? histogram.getPercentileMillis(percentile) : initialDelayMillis;
+        return Math.min(maxDelayMillis, Math.max(minDelayMillis, delay));
+    }
+
+    /**
+     * 记录一次请求从发出到收到首字节的时间
+     */
+    public void recordFirstByte(long elapsedNanos) {
+        histogram.record(elapsedNanos);
+    }
+
+    /**
+     * 发出一个请求，积累对冲的额度
+     */
+    public synchronized void onRequest() {
+        tokens = Math.min(burst, tokens + ratio);
+    }
+
+    /**
+     * @return 是否还有对冲的额度，有则占用一次
+     */
+    public synchronized boolean tryAcquire() {
+        if (tokens < 1D) {
+            return false;
+        }
+        tokens -= 1D;
+        return true;
+    }
+
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+}
@@ -0,0 +1,16 @@
+package com.magicvector.ai.brain.routing;
+
+import java.util.List;
+
+/**
+ * 负载均衡策略：从可用的端点中为一次请求选择一个。实现需要是线程安全的。
+ */
+public interface ILoadBalancer {
+
+    /**
+     * @param candidates 可用的端点，不为空
+     * @return 选中的端点
+     */
+    BrainEndpoint choose(List<BrainEndpoint> candidates);
+
+}
@@ -0,0 +1,113 @@
+package com.magicvector.ai.brain.routing;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 延迟直方图：按对数划分桶（每翻一倍分4个桶，相对误差约19%），用于估计延迟的百分位数。
+ * <p>
+ * 统计分为两个滑动窗口，每过一个窗口时长丢弃更早的一个窗口，百分位数由最近两个窗口的样本计算，
+ * 因此能跟随远端延迟的变化。记录样本不加锁。
+ * </p>
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS_PER_DOUBLING = 4;
+
+    /**
+     * 最大约为2^24毫秒（4.6小时），更大的样本计入最后一个桶
+     */
+    private static final int BUCKET_COUNT = 24 * BUCKETS_PER_DOUBLING + 1;
+
+    private final long windowMillis;
+
+    private volatile AtomicLongArray current = new AtomicLongArray(BUCKET_COUNT);
+
+    private volatile AtomicLongArray previous = new AtomicLongArray(BUCKET_COUNT);
+
+    private volatile long windowStart = System.currentTimeMillis();
+
+    /**
+     * @param windowMillis 每个窗口的时长
+     */
+    public LatencyHistogram(long windowMillis){
+        this.windowMillis = Math.max(1L, windowMillis);
+    }
+
+    /**
+     * 记录一个样本
+     */
+    public void record(long elapsedNanos) {
+        rotateIfNeeded();
+        current.incrementAndGet(bucketOf(elapsedNanos / 1_000_000L));
+    }
+
+    /**
+     * @return 最近两个窗口中的样本数
+     */
+    public long getCount() {
+        rotateIfNeeded();
+        long count = 0;
+        AtomicLongArray recent = current, older = previous;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += recent.get(i) + older.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile 百分位，0到100之间
+     * @return 最近两个窗口中该百分位的延迟（毫秒，取所在桶的上界），没有样本时返回-1
+     */
+    public long getPercentileMillis(double percentile) {
+        rotateIfNeeded();
+        AtomicLongArray recent = current, older = previous;
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = recent.get(i) + older.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return -1L;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(total * Math.min(100D, Math.max(0D, percentile)) / 100D));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(BUCKET_COUNT - 1);
+    }
+
+    private void rotateIfNeeded() {
+        long now = System.currentTimeMillis();
+        if (now - windowStart < windowMillis) {
+            return;
+        }
+        synchronized (this) {
+            long elapsed = now - windowStart;
+            if (elapsed < windowMillis) {
+                return;
+            }
+            // 超过两个窗口没有轮换时，两个窗口的样本都已过期
+            previous = elapsed < 2 * windowMillis ? current : new AtomicLongArray(BUCKET_COUNT);
+            current = new AtomicLongArray(BUCKET_COUNT);
+            windowStart = now;
+        }
+    }
+
+    private static int bucketOf(long millis) {
+        if (millis < 1) {
+            return 0;
+        }
+        int bucket = (int) Math.ceil(Math.log(millis) / Math.log(2) * BUCKETS_PER_DOUBLING);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    private static long upperBoundOf(int bucket) {
+        return (long) Math.ceil(Math.pow(2, (double) bucket / BUCKETS_PER_DOUBLING));
+    }
+
+}
@@ -0,0 +1,714 @@
+package com.magicvector.ai.brain.routing;
+
+import com.github.tbwork.anole.loader.Anole;
+import com.github.tbwork.anole.loader.util.S;
+import com.magicvector.ai.brain.Brain;
+import com.magicvector.ai.brain.IChunkReader;
+import com.magicvector.ai.brain.llm.BrainConfig;
+import com.magicvector.ai.brain.llm.BrainConfigManager;
+import com.magicvector.ai.brain.llm.openai.GeneralBrain;
+import com.magicvector.ai.exceptions.Assert;
+import com.magicvector.ai.exceptions.RemoteLLMCallException;
+import com.magicvector.ai.wizards.model.MagicChat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * 路由脑：将请求分发到多个端点大脑上。
+ * <p>
+ * 每次请求由负载均衡策略从未被剔除的端点中选择一个；所有端点都被剔除时不再区分，从全部端点中选择。
+ * 在拿到响应之前失败的请求会换一个端点重试，流式响应开始返回后不再重试。
+ * 各端点的进行中请求数、首字节延迟和连续失败次数都是从实际请求中被动统计的，不额外发送探测请求。
+ * </p>
+ * <p>
+ * 设置了{@link HedgePolicy}时，流式请求在策略给出的时间内没有收到首字节会再发出一个对冲请求（优先发往其他端点，
+ * 只有一个端点时发往同一端点），使用先收到首字节的一个，另一个立即取消。只有一个端点时也可以借此使用对冲。
+ * </p>
+ */
+public class RoutingBrain implements Brain {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoutingBrain.class);
+
+    private final List<BrainEndpoint> endpoints;
+
+    private final ILoadBalancer balancer;
+
+    private final int maxAttempts = Math.max(1, Anole.getIntProperty("magicgpt.config.brain.routing.maxAttempts", 2));
+
+    private final int failureThreshold = Math.max(1, Anole.getIntProperty("magicgpt.config.brain.routing.eject.failures", 3));
+
+    private final long ejectionMillis = Math.max(0L, Anole.getLongProperty("magicgpt.config.brain.routing.eject.seconds", 30L)) * 1000L;
+
+    private final double ewmaAlpha = Anole.getDoubleProperty("magicgpt.config.brain.routing.ewma.alpha", 0.3);
+
+    /**
+     * 对冲策略，为null时不对冲
+     */
+    private volatile HedgePolicy hedgePolicy;
+
+    private static volatile ScheduledExecutorService hedgeTimer;
+
+    private static volatile ExecutorService firstByteWaiters;
+
+    /**
+     * 使用配置中的负载均衡策略和对冲策略
+     */
+    public RoutingBrain(List<BrainEndpoint> endpoints){
+        this(endpoints, RoutingStrategy.valueOf(Anole.getProperty("magicgpt.config.brain.routing.strategy", RoutingStrategy.EWMA.name()).trim().toUpperCase())
+                .newBalancer(Anole.getLongProperty("magicgpt.config.brain.routing.ewma.decay.seconds", 10L) * 1000L));
+        if (Anole.getBoolProperty("magicgpt.config.brain.hedge.enabled", false)) {
+            this.hedgePolicy = HedgePolicy.fromAnole();
+        }
+    }
+
+    public RoutingBrain(List<BrainEndpoint> endpoints, ILoadBalancer balancer){
+        Assert.judge(endpoints != null && !endpoints.isEmpty(), "路由脑至少需要一个端点");
+        this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+        this.balancer = balancer;
+    }
+
+    /**
+     * 根据配置创建路由脑。llm.endpoints 为逗号分隔的端点名称，每个端点可以通过
+     * llm.endpoints.&lt;名称&gt;.api.chat.url、.api.key、.model、.weight 覆盖全局配置中的API地址、KEY、模型和权重（默认为1）。
+     * @param defaultModelName 端点没有配置模型时使用的模型
+     */
+    public static RoutingBrain fromAnole(String defaultModelName){
+        String names = Anole.getProperty("llm.endpoints");
+        Assert.judge(!S.isEmpty(names), "没有配置llm.endpoints");
+        List<BrainEndpoint> endpoints = new ArrayList<>();
+        for (String name : names.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            String prefix = "llm.endpoints." + name + ".";
+            BrainConfigManager configManager = new BrainConfigManager(() -> {
+                BrainConfig.Builder builder = BrainConfig.fromAnole().toBuilder();
+                String url = Anole.getProperty(prefix + "api.chat.url");
+                if (!S.isEmpty(url)) {
+                    builder.setChatApiUrl(url);
+                }
+                String apiKey = Anole.getProperty(prefix + "api.key");
+                if (!S.isEmpty(apiKey)) {
+                    builder.setApiKey(apiKey);
+                }
+                return builder.build();
+            });
+            String modelName = Anole.getProperty(prefix + "model", defaultModelName);
+            endpoints.add(new BrainEndpoint(name, new GeneralBrain(modelName, configManager), Anole.getIntProperty(prefix + "weight", 1)));
+        }
+        return new RoutingBrain(endpoints);
+    }
+
+    public List<BrainEndpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    public HedgePolicy getHedgePolicy() {
+        return hedgePolicy;
+    }
+
+    /**
+     * @param hedgePolicy 对冲策略，为null时不对冲
+     */
+    public void setHedgePolicy(HedgePolicy hedgePolicy) {
+        this.hedgePolicy = hedgePolicy;
+    }
+
+    /**
+     * 对冲时通过各端点的异步接口发出请求，并等待先收到首字节的一个
+     */
+    @Override
+    public InputStream process(MagicChat magicChat) {
+        if (hedgePolicy == null) {
+            return call(brain -> brain.process(magicChat), this::routed);
+        }
+        try {
+            return processAsync(magicChat).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 对冲时，返回的Future在某个请求收到首字节后才完成
+     */
+    @Override
+    public CompletableFuture<InputStream> processAsync(MagicChat magicChat) {
+        HedgePolicy policy = hedgePolicy;
+        if (policy == null) {
+            return callAsync(brain -> brain.processAsync(magicChat), this::routed, new ArrayList<>(maxAttempts));
+        }
+        return new HedgedRequest(magicChat, policy).start();
+    }
+
+    @Override
+    public String response(MagicChat magicChat) {
+        return call(brain -> brain.response(magicChat), this::responded);
+    }
+
+    @Override
+    public CompletableFuture<String> responseAsync(MagicChat magicChat) {
+        return callAsync(brain -> brain.responseAsync(magicChat), this::responded, new ArrayList<>(maxAttempts));
+    }
+
+    /**
+     * 使用输出流所属端点的读取器，并在读完时记录该端点的请求结果
+     */
+    @Override
+    public IChunkReader openChunkReader(InputStream inputStream) {
+        if (inputStream instanceof RoutedInputStream) {
+            RoutedInputStream routed = (RoutedInputStream) inputStream;
+            return new RoutedChunkReader(routed.endpoint.getBrain().openChunkReader(routed), routed);
+        }
+        return endpoints.get(0).getBrain().openChunkReader(inputStream);
+    }
+
+    @Override
+    public String parseChunk(String chunk) {
+        return endpoints.get(0).getBrain().parseChunk(chunk);
+    }
+
+    /**
+     * 选择端点
+     * @param tried 本次请求已经尝试过的端点
+     * @return 没有可选的端点时返回null
+     */
+    private BrainEndpoint choose(List<BrainEndpoint> tried){
+        List<BrainEndpoint> candidates = new ArrayList<>(endpoints.size());
+        List<BrainEndpoint> ejected = new ArrayList<>(0);
+        for (BrainEndpoint endpoint : endpoints) {
+            if (tried.contains(endpoint)) {
+                continue;
+            }
+            (endpoint.isAvailable() ? candidates : ejected).add(endpoint);
+        }
+        if (candidates.isEmpty()) {
+            if (ejected.isEmpty()) {
+                return null;
+            }
+            if (tried.isEmpty()) {
+                logger.warn("所有大脑端点都已被剔除，从全部端点中选择。");
+            }
+            candidates = ejected;
+        }
+        return candidates.size() == 1 ? candidates.get(0) : balancer.choose(candidates);
+    }
+
+    private <T> T call(Function<Brain, T> call, Completion<T> completion){
+        List<BrainEndpoint> tried = new ArrayList<>(maxAttempts);
+        RuntimeException failure = null;
+        BrainEndpoint endpoint;
+        while (tried.size() < maxAttempts && (endpoint = choose(tried)) != null) {
+            tried.add(endpoint);
+            long startNanos = System.nanoTime();
+            endpoint.onStart();
+            T value;
+            try {
+                value = call.apply(endpoint.getBrain());
+            } catch (RuntimeException e) {
+                finish(endpoint, false);
+                logger.warn("大脑端点{}调用失败：{}", endpoint.getName(), e.getMessage());
+                failure = e;
+                continue;
+            }
+            return completion.complete(endpoint, startNanos, value);
+        }
+        throw failure != null ? failure : new RemoteLLMCallException("routing");
+    }
+
+    /**
+     * @param tried 不再选择的端点，本次调用尝试过的端点也会加入其中
+     */
+    private <T> CompletableFuture<T> callAsync(Function<Brain, CompletableFuture<T>> call, Completion<T> completion, List<BrainEndpoint> tried){
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<T>> current = new AtomicReference<>();
+        // 取消时一并取消正在进行的请求
+        result.whenComplete((value, e) -> {
+            CompletableFuture<T> attempt = current.get();
+            if (result.isCancelled() && attempt != null) {
+                attempt.cancel(true);
+            }
+        });
+        attemptAsync(call, completion, result, current, tried, tried.size() + maxAttempts, null);
+        return result;
+    }
+
+    private <T> void attemptAsync(Function<Brain, CompletableFuture<T>> call, Completion<T> completion, CompletableFuture<T> result,
+                                  AtomicReference<CompletableFuture<T>> current, List<BrainEndpoint> tried, int limit, Throwable failure){
+        BrainEndpoint endpoint = tried.size() < limit ? choose(tried) : null;
+        if (endpoint == null) {
+            result.completeExceptionally(failure != null ? failure : new RemoteLLMCallException("routing"));
+            return;
+        }
+        tried.add(endpoint);
+        long startNanos = System.nanoTime();
+        endpoint.onStart();
+        CompletableFuture<T> attempt;
+        try {
+            attempt = call.apply(endpoint.getBrain());
+        } catch (RuntimeException e) {
+            attempt = new CompletableFuture<>();
+            attempt.completeExceptionally(e);
+        }
+        current.set(attempt);
+        attempt.whenComplete((value, e) -> {
+            if (e == null) {
+                T completed = completion.complete(endpoint, startNanos, value);
+                if (!result.complete(completed)) {
+                    abandon(completed);
+                }
+                return;
+            }
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (result.isCancelled() || cause instanceof CancellationException) {
+                endpoint.onStall(System.nanoTime() - startNanos, ewmaAlpha);
+                endpoint.onCancel();
+                return;
+            }
+            finish(endpoint, false);
+            if (result.isDone()) {
+                return;
+            }
+            logger.warn("大脑端点{}调用失败：{}", endpoint.getName(), cause.getMessage());
+            attemptAsync(call, completion, result, current, tried, limit, cause);
+        });
+        if (result.isCancelled()) {
+            attempt.cancel(true);
+        }
+    }
+
+    private InputStream routed(BrainEndpoint endpoint, long startNanos, InputStream inputStream){
+        if (inputStream == null) {
+            finish(endpoint, true);
+            return null;
+        }
+        return new RoutedInputStream(inputStream, endpoint, startNanos);
+    }
+
+    private String responded(BrainEndpoint endpoint, long startNanos, String response){
+        endpoint.onFirstByte(System.nanoTime() - startNanos, ewmaAlpha);
+        finish(endpoint, true);
+        return response;
+    }
+
+    private void finish(BrainEndpoint endpoint, boolean success){
+        endpoint.onFinish(success, failureThreshold, ejectionMillis);
+    }
+
+    /**
+     * 放弃已经拿到但不再需要的响应
+     */
+    private static void abandon(Object response){
+        if (response instanceof RoutedInputStream) {
+            ((RoutedInputStream) response).abandon();
+        } else if (response instanceof Closeable) {
+            try {
+                ((Closeable) response).close();
+            } catch (IOException e) {
+                logger.debug("Fail to close the abandoned response, details: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static ScheduledExecutorService getHedgeTimer(){
+        if (hedgeTimer == null) {
+            synchronized (RoutingBrain.class) {
+                if (hedgeTimer == null) {
+                    ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+                        Thread thread = new Thread(runnable, "magicgpt-brain-hedge-timer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    timer.setRemoveOnCancelPolicy(true);
+                    hedgeTimer = timer;
+                }
+            }
+        }
+        return hedgeTimer;
+    }
+
+    /**
+     * 等待首字节的线程池，线程只在等待远端开始返回期间占用。线程数有上限且不排队，
+     * 已满时（通常是远端整体变慢）新的请求不再对冲，线程数不会随进行中的对话数增长。
+     */
+    private static ExecutorService getFirstByteWaiters(){
+        if (firstByteWaiters == null) {
+            synchronized (RoutingBrain.class) {
+                if (firstByteWaiters == null) {
+                    AtomicInteger counter = new AtomicInteger(0);
+                    ThreadPoolExecutor waiters = new ThreadPoolExecutor(
+                            0,
+                            Math.max(1, Anole.getIntProperty("magicgpt.config.brain.hedge.threads.maxSize", 64)),
+                            60L,
+                            TimeUnit.SECONDS,
+                            new SynchronousQueue<Runnable>(),
+                            runnable -> {
+                                Thread thread = new Thread(runnable, "magicgpt-brain-hedge-" + counter.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            },
+                            new ThreadPoolExecutor.AbortPolicy()
+                    );
+                    firstByteWaiters = waiters;
+                }
+            }
+        }
+        return firstByteWaiters;
+    }
+
+    /**
+     * 请求成功拿到响应后的处理
+     */
+    private interface Completion<T> {
+
+        T complete(BrainEndpoint endpoint, long startNanos, T value);
+    }
+
+
+    /**
+     * 记录首字节延迟和请求结果的输出流。
+     * 通过{@link RoutedChunkReader}读取时，由读取器根据是否为错误响应记录结果；否则读到结尾或关闭时按成功记录，读取出错时按失败记录。
+     */
+    private class RoutedInputStream extends FilterInputStream {
+
+        private static final int NO_BYTE = -2;
+
+        private final BrainEndpoint endpoint;
+
+        private final long startNanos;
+
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+
+        private volatile boolean firstByteRead = false;
+
+        private boolean readByChunkReader = false;
+
+        /**
+         * 等待首字节时预先读出的字节，-1为流已结束
+         */
+        private int peeked = NO_BYTE;
+
+        private RoutedInputStream(InputStream in, BrainEndpoint endpoint, long startNanos){
+            super(in);
+            this.endpoint = endpoint;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * 阻塞直到收到首字节，读出的字节之后仍会正常返回
+         */
+        private void awaitFirstByte() throws IOException {
+            peeked = read();
+        }
+
+        /**
+         * 放弃该响应：关闭输出流（正在阻塞的读取随之结束），不影响端点的健康状态
+         */
+        private void abandon(){
+            if (finished.compareAndSet(false, true)) {
+                if (!firstByteRead) {
+                    endpoint.onStall(System.nanoTime() - startNanos, ewmaAlpha);
+                }
+                endpoint.onCancel();
+            }
+            try {
+                super.close();
+            } catch (IOException e) {
+                logger.debug("Fail to close the abandoned response, details: {}", e.getMessage());
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (peeked != NO_BYTE) {
+                int b = peeked;
+                peeked = NO_BYTE;
+                return b;
+            }
+            int b;
+            try {
+                b = super.read();
+            } catch (IOException e) {
+                complete(false);
+                throw e;
+            }
+            afterRead(b < 0 ? -1 : 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (peeked != NO_BYTE && len > 0) {
+                int first = peeked;
+                peeked = NO_BYTE;
+                if (first < 0) {
+                    return -1;
+                }
+                b[off] = (byte) first;
+                return 1;
+            }
+            int n;
+            try {
+                n = super.read(b, off, len);
+            } catch (IOException e) {
+                complete(false);
+                throw e;
+            }
+            afterRead(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (peeked >= 0 && n > 0) {
+                peeked = NO_BYTE;
+                return 1;
+            }
+            return super.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return super.available() + (peeked >= 0 ? 1 : 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                complete(true);
+            }
+        }
+
+        private void afterRead(int n){
+            if (n > 0 && !firstByteRead) {
+                firstByteRead = true;
+                endpoint.onFirstByte(System.nanoTime() - startNanos, ewmaAlpha);
+            } else if (n < 0 && !readByChunkReader) {
+                complete(true);
+            }
+        }
+
+        private void complete(boolean success){
+            if (finished.compareAndSet(false, true)) {
+                finish(endpoint, success);
+            }
+        }
+    }
+
+
+    /**
+     * 一次对冲的流式请求：先发出主请求，到时仍没有收到首字节且还有对冲额度时再发出一个，
+     * 先收到首字节的请求作为结果，其余的请求被取消。所有请求都失败时才以失败结束。
+     */
+    private class HedgedRequest {
+
+        private final MagicChat chat;
+
+        private final HedgePolicy policy;
+
+        private final long startNanos = System.nanoTime();
+
+        private final CompletableFuture<InputStream> result = new CompletableFuture<>();
+
+        private final List<BrainEndpoint> tried = Collections.synchronizedList(new ArrayList<>());
+
+        private final List<CompletableFuture<InputStream>> attempts = new ArrayList<>(2);
+
+        private final List<RoutedInputStream> streams = new ArrayList<>(2);
+
+        /**
+         * 还没有失败的请求数
+         */
+        private int running = 0;
+
+        private HedgedRequest(MagicChat chat, HedgePolicy policy){
+            this.chat = chat;
+            this.policy = policy;
+        }
+
+        private CompletableFuture<InputStream> start(){
+            policy.onRequest();
+            launch(tried);
+            long delay = policy.getDelayMillis();
+            ScheduledFuture<?> timer = getHedgeTimer().schedule(this::hedge, delay, TimeUnit.MILLISECONDS);
+            result.whenComplete((inputStream, e) -> {
+                timer.cancel(false);
+                cancelOthers(inputStream);
+            });
+            return result;
+        }
+
+        private void hedge(){
+            if (result.isDone() || !policy.tryAcquire()) {
+                return;
+            }
+            List<BrainEndpoint> excluded;
+            synchronized (tried) {
+                excluded = tried.size() >= endpoints.size() ? new ArrayList<>(maxAttempts) : new ArrayList<>(tried);
+            }
+            logger.debug("{}ms内没有收到大脑的首字节，发出对冲请求。", (System.nanoTime() - startNanos) / 1_000_000L);
+            launch(excluded);
+        }
+
+        private void launch(List<BrainEndpoint> excluded){
+            synchronized (this) {
+                if (result.isDone()) {
+                    return;
+                }
+                running++;
+            }
+            CompletableFuture<InputStream> attempt = callAsync(brain -> brain.processAsync(chat), RoutingBrain.this::routed, excluded);
+            synchronized (this) {
+                attempts.add(attempt);
+            }
+            if (result.isDone()) {
+                attempt.cancel(true);
+            }
+            attempt.whenComplete((inputStream, e) -> {
+                if (e != null) {
+                    onFailure(e);
+                } else if (inputStream == null) {
+                    onFirstByte(null);
+                } else {
+                    RoutedInputStream routed = (RoutedInputStream) inputStream;
+                    synchronized (this) {
+                        streams.add(routed);
+                    }
+                    if (result.isDone()) {
+                        routed.abandon();
+                        return;
+                    }
+                    try {
+                        getFirstByteWaiters().execute(() -> awaitFirstByte(routed));
+                    } catch (RejectedExecutionException rejected) {
+                        // 等待首字节的线程已满，不再对冲，直接使用该响应
+                        logger.debug("等待首字节的线程已满，本次请求不对冲。");
+                        if (!result.complete(routed)) {
+                            routed.abandon();
+                        }
+                    }
+                }
+            });
+        }
+
+        private void awaitFirstByte(RoutedInputStream routed){
+            try {
+                routed.awaitFirstByte();
+            } catch (IOException e) {
+                onFailure(e);
+                return;
+            }
+            onFirstByte(routed);
+        }
+
+        private void onFirstByte(RoutedInputStream routed){
+            if (result.complete(routed)) {
+                policy.recordFirstByte(System.nanoTime() - startNanos);
+            } else if (routed != null) {
+                routed.abandon();
+            }
+        }
+
+        /**
+         * 主请求在对冲之前失败时（已经在其他端点上重试过）直接以失败结束，不再等待对冲
+         */
+        private void onFailure(Throwable e){
+            Throwable failure = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            synchronized (this) {
+                if (--running > 0) {
+                    return;
+                }
+            }
+            result.completeExceptionally(failure);
+        }
+
+        private void cancelOthers(InputStream winner){
+            List<CompletableFuture<InputStream>> pendingAttempts;
+            List<RoutedInputStream> openedStreams;
+            synchronized (this) {
+                pendingAttempts = new ArrayList<>(attempts);
+                openedStreams = new ArrayList<>(streams);
+            }
+            for (CompletableFuture<InputStream> attempt : pendingAttempts) {
+                attempt.cancel(true);
+            }
+            for (RoutedInputStream stream : openedStreams) {
+                if (stream != winner) {
+                    stream.abandon();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * 读完时根据端点的读取器是否读到错误响应记录请求结果
+     */
+    private static class RoutedChunkReader implements IChunkReader {
+
+        private final IChunkReader delegate;
+
+        private final RoutedInputStream inputStream;
+
+        private RoutedChunkReader(IChunkReader delegate, RoutedInputStream inputStream){
+            this.delegate = delegate;
+            this.inputStream = inputStream;
+            inputStream.readByChunkReader = true;
+        }
+
+        @Override
+        public String nextChunk() throws IOException {
+            String chunk;
+            try {
+                chunk = delegate.nextChunk();
+            } catch (IOException | RuntimeException e) {
+                inputStream.complete(false);
+                throw e;
+            }
+            if (chunk == null) {
+                inputStream.complete(!delegate.isFailed());
+            }
+            return chunk;
+        }
+
+        @Override
+        public boolean isFailed() {
+            return delegate.isFailed();
+        }
+    }
+
+}
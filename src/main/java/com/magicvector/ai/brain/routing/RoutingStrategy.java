@@ -0,0 +1,41 @@
+package com.magicvector.ai.brain.routing;
+
+import com.magicvector.ai.brain.routing.impl.EwmaLatencyBalancer;
+import com.magicvector.ai.brain.routing.impl.LeastOutstandingBalancer;
+import com.magicvector.ai.brain.routing.impl.WeightedRoundRobinBalancer;
+
+/**
+ * 内置的负载均衡策略
+ */
+public enum RoutingStrategy {
+
+    /**
+     * 平滑加权轮询
+     */
+    ROUND_ROBIN,
+
+    /**
+     * 最少进行中请求
+     */
+    LEAST_OUTSTANDING,
+
+    /**
+     * 首字节延迟的EWMA
+     */
+    EWMA;
+
+    /**
+     * @param decayMillis EWMA策略中延迟估计值衰减的时间常数
+     */
+    public ILoadBalancer newBalancer(long decayMillis){
+        switch (this) {
+            case ROUND_ROBIN:
+                return new WeightedRoundRobinBalancer();
+            case LEAST_OUTSTANDING:
+                return new LeastOutstandingBalancer();
+            default:
+                return new EwmaLatencyBalancer(decayMillis);
+        }
+    }
+
+}
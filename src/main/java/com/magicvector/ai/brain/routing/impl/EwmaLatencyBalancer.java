@@ -0,0 +1,43 @@
+package com.magicvector.ai.brain.routing.impl;
+
+import com.magicvector.ai.brain.routing.BrainEndpoint;
+import com.magicvector.ai.brain.routing.ILoadBalancer;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 首字节延迟优先：按 首字节延迟的EWMA × (进行中的请求数 + 1) / 权重 选择代价最小的端点。
+ * 还没有延迟样本的端点代价为0，会优先得到请求；估计值随空闲时间衰减，变慢过的端点之后仍会被重新探测。
+ */
+public class EwmaLatencyBalancer implements ILoadBalancer {
+
+    private final long decayMillis;
+
+    private final AtomicInteger offset = new AtomicInteger(0);
+
+    /**
+     * @param decayMillis 延迟估计值衰减的时间常数
+     */
+    public EwmaLatencyBalancer(long decayMillis){
+        this.decayMillis = decayMillis;
+    }
+
+    @Override
+    public BrainEndpoint choose(List<BrainEndpoint> candidates) {
+        int size = candidates.size();
+        int start = (offset.getAndIncrement() & Integer.MAX_VALUE) % size;
+        BrainEndpoint best = null;
+        double bestCost = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            BrainEndpoint candidate = candidates.get((start + i) % size);
+            double cost = candidate.getEwmaTtfbMillis(decayMillis) * (candidate.getOutstanding() + 1D) / candidate.getWeight();
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+}
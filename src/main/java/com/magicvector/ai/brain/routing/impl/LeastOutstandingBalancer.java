@@ -0,0 +1,33 @@
+package com.magicvector.ai.brain.routing.impl;
+
+import com.magicvector.ai.brain.routing.BrainEndpoint;
+import com.magicvector.ai.brain.routing.ILoadBalancer;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 最少进行中请求：选择进行中的请求数与权重之比最小的端点，相同时轮流从不同的端点开始比较，避免总是选中第一个。
+ */
+public class LeastOutstandingBalancer implements ILoadBalancer {
+
+    private final AtomicInteger offset = new AtomicInteger(0);
+
+    @Override
+    public BrainEndpoint choose(List<BrainEndpoint> candidates) {
+        int size = candidates.size();
+        int start = (offset.getAndIncrement() & Integer.MAX_VALUE) % size;
+        BrainEndpoint best = null;
+        double bestLoad = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            BrainEndpoint candidate = candidates.get((start + i) % size);
+            double load = (candidate.getOutstanding() + 1D) / candidate.getWeight();
+            if (load < bestLoad) {
+                bestLoad = load;
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+}
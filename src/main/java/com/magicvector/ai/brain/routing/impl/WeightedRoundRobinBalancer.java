@@ -0,0 +1,36 @@
+package com.magicvector.ai.brain.routing.impl;
+
+import com.magicvector.ai.brain.routing.BrainEndpoint;
+import com.magicvector.ai.brain.routing.ILoadBalancer;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 平滑加权轮询：每次选择时各端点的当前权重加上自身权重，选出当前权重最大的端点并减去总权重，
+ * 请求按权重比例均匀地交错分布，不会连续集中到权重大的端点上。
+ */
+public class WeightedRoundRobinBalancer implements ILoadBalancer {
+
+    private final Map<BrainEndpoint, Integer> currentWeights = new IdentityHashMap<>();
+
+    @Override
+    public synchronized BrainEndpoint choose(List<BrainEndpoint> candidates) {
+        int totalWeight = 0;
+        BrainEndpoint best = null;
+        int bestWeight = Integer.MIN_VALUE;
+        for (BrainEndpoint candidate : candidates) {
+            int current = currentWeights.getOrDefault(candidate, 0) + candidate.getWeight();
+            currentWeights.put(candidate, current);
+            totalWeight += candidate.getWeight();
+            if (current > bestWeight) {
+                bestWeight = current;
+                best = candidate;
+            }
+        }
+        currentWeights.put(best, bestWeight - totalWeight);
+        return best;
+    }
+
+}
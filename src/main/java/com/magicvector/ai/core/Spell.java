@@ -1,5 +1,7 @@
 package com.magicvector.ai.core;
 
+import com.magicvector.ai.executors.impl.SpellInvoker;
+import com.magicvector.ai.executors.impl.SpellResultCache;
 import com.magicvector.ai.model.Arg;
 import lombok.Data;
 
@@ -16,12 +18,70 @@ public class Spell {
      */
     private final List<Arg> gptFeedArgs;
 
+    /**
+     * 执行超时（毫秒），小于等于0表示未指定
+     */
+    private final long timeoutMillis;
+
+    /**
+     * 是否缓存执行结果
+     */
+    private final boolean cacheable;
+    private final long cacheTtlSeconds;
+    private final int cacheMaxEntries;
+
+    /**
+     * 放入对话的执行结果的tokens上限，小于等于0表示未指定
+     */
+    private final int maxResultTokens;
+
+    /**
+     * 在咒语书中的次序，越大越靠后，次序相同时按名称排列
+     */
+    private final int order;
+
+    /**
+     * 注册时生成的调用器
+     */
+    private SpellInvoker invoker;
+
+    /**
+     * 注册时为可缓存的咒语创建的结果缓存
+     */
+    private SpellResultCache resultCache;
+
     private Spell(Builder builder) {
         this.apiName = builder.apiName;
         this.description = builder.description;
         this.className = builder.className;
         this.methodName = builder.methodName;
         this.gptFeedArgs = builder.feedArgs;
+        this.timeoutMillis = builder.timeoutMillis;
+        this.cacheable = builder.cacheable;
+        this.cacheTtlSeconds = builder.cacheTtlSeconds;
+        this.cacheMaxEntries = builder.cacheMaxEntries;
+        this.maxResultTokens = builder.maxResultTokens;
+        this.order = builder.order;
+        this.invoker = builder.invoker;
+        this.resultCache = builder.resultCache;
+    }
+
+    /**
+     * 以当前咒语的定义创建构建器，不携带调用器和结果缓存
+     */
+    public Builder toBuilder() {
+        return new Builder()
+                .setApiName(apiName)
+                .setDescription(description)
+                .setClassName(className)
+                .setMethodName(methodName)
+                .setFeedArgs(gptFeedArgs)
+                .setTimeoutMillis(timeoutMillis)
+                .setCacheable(cacheable)
+                .setCacheTtlSeconds(cacheTtlSeconds)
+                .setCacheMaxEntries(cacheMaxEntries)
+                .setMaxResultTokens(maxResultTokens)
+                .setOrder(order);
     }
 
 
@@ -36,6 +96,22 @@ public class Spell {
 
         private List<Arg> feedArgs;
 
+        private long timeoutMillis = 0;
+
+        private boolean cacheable = false;
+
+        private long cacheTtlSeconds = 60;
+
+        private int cacheMaxEntries = 1000;
+
+        private int maxResultTokens = 0;
+
+        private int order = 0;
+
+        private SpellInvoker invoker;
+
+        private SpellResultCache resultCache;
+
         public Builder setApiName(String apiName) {
             this.apiName = apiName;
             return this;
@@ -60,6 +136,46 @@ public class Spell {
             return this;
         }
 
+        public Builder setTimeoutMillis(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        public Builder setCacheable(boolean cacheable) {
+            this.cacheable = cacheable;
+            return this;
+        }
+
+        public Builder setCacheTtlSeconds(long cacheTtlSeconds) {
+            this.cacheTtlSeconds = cacheTtlSeconds;
+            return this;
+        }
+
+        public Builder setCacheMaxEntries(int cacheMaxEntries) {
+            this.cacheMaxEntries = cacheMaxEntries;
+            return this;
+        }
+
+        public Builder setMaxResultTokens(int maxResultTokens) {
+            this.maxResultTokens = maxResultTokens;
+            return this;
+        }
+
+        public Builder setOrder(int order) {
+            this.order = order;
+            return this;
+        }
+
+        public Builder setInvoker(SpellInvoker invoker) {
+            this.invoker = invoker;
+            return this;
+        }
+
+        public Builder setResultCache(SpellResultCache resultCache) {
+            this.resultCache = resultCache;
+            return this;
+        }
+
 
         public Spell build() {
             return new Spell(this);
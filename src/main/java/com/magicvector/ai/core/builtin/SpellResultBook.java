@@ -0,0 +1,50 @@
+package com.magicvector.ai.core.builtin;
+
+import com.github.tbwork.anole.loader.Anole;
+import com.magicvector.ai.annotation.MagicArg;
+import com.magicvector.ai.annotation.MagicBook;
+import com.magicvector.ai.annotation.SpellDefinition;
+import com.magicvector.ai.exceptions.Assert;
+import com.magicvector.ai.executors.store.SpellResultStoreFactory;
+
+/**
+ * 内置咒语书：分页查看因过长而只在对话中放入摘录的咒语结果
+ */
+@MagicBook(name = SpellResultBook.BOOK_NAME)
+public class SpellResultBook {
+
+    public static final String BOOK_NAME = "magicgpt";
+
+    public static final String READ_SPELL_RESULT = "readSpellResult";
+
+    /**
+     * 每页的字符数，应使一页的tokens不超过咒语结果的上限
+     */
+    private static final int PAGE_CHARS = Math.max(1, Anole.getIntProperty("magicgpt.config.spell.result.page.chars", 2000));
+
+    @SpellDefinition(name = READ_SPELL_RESULT, description = "分页查看过长而被摘录的咒语结果的完整内容")
+    public static String readSpellResult(@MagicArg(name = "handle", description = "咒语结果的句柄") String handle,
+                                         @MagicArg(name = "page", description = "页码，从1开始") String page) {
+        String content = SpellResultStoreFactory.getInstance().load(handle == null ? null : handle.trim());
+        Assert.judge(content != null, "咒语结果" + handle + "不存在或已过期");
+        int pageCount = getPageCount(content.length());
+        int pageNo;
+        try {
+            pageNo = Integer.parseInt(page.trim());
+        } catch (RuntimeException e) {
+            pageNo = 0;
+        }
+        Assert.judge(pageNo >= 1 && pageNo <= pageCount, "页码应在1到" + pageCount + "之间");
+        int from = (pageNo - 1) * PAGE_CHARS;
+        int to = Math.min(from + PAGE_CHARS, content.length());
+        return "第" + pageNo + "/" + pageCount + "页：\n" + content.substring(from, to);
+    }
+
+    /**
+     * @return 指定长度的咒语结果的总页数
+     */
+    public static int getPageCount(int length) {
+        return Math.max(1, (length + PAGE_CHARS - 1) / PAGE_CHARS);
+    }
+
+}
@@ -1,19 +1,30 @@
 package com.magicvector.ai.core.manager;
 
+import com.github.tbwork.anole.loader.Anole;
 import com.magicvector.ai.exceptions.Assert;
 import com.magicvector.ai.executors.IExecutor;
 import com.magicvector.ai.executors.ITask;
 import com.magicvector.ai.executors.impl.Task;
 import com.magicvector.ai.executors.impl.Executor;
+import com.magicvector.ai.executors.impl.SpellInvoker;
+import com.magicvector.ai.executors.impl.SpellResultCache;
+import com.magicvector.ai.executors.impl.SpellThreadPool;
 import com.magicvector.ai.core.Spell;
-import com.magicvector.ai.prompts.impl.SpellPrompt;
 import com.magicvector.ai.util.SpellUtil;
 import org.apache.http.util.Asserts;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 咒语管理器，包含基础的功能以及咒语执行管理
@@ -22,38 +33,96 @@ public class SpellManager {
 
     private static final IExecutor executor = Executor.INSTANCE;
 
-    private static final Map<String, Map<String,Spell>> magicSpellBooks = new HashMap<String, Map<String,Spell>>();
+    /**
+     * 当前版本的咒语注册表，读取时不加锁，写入时整体替换
+     */
+    private static volatile SpellRegistry registry = SpellRegistry.EMPTY;
 
-    private static final Map<String, Spell> quickMap = new HashMap<String, Spell>();
+    /**
+     * 写入锁，保证并发的注册、替换、移除不会相互覆盖
+     */
+    private static final Object writeLock = new Object();
 
 
+    /**
+     * 获取当前版本的咒语注册表快照，一次对话可以持有该快照以在多轮中保持一致的咒语视图
+     */
+    public static SpellRegistry getRegistry(){
+        return registry;
+    }
+
+    public static long getVersion(){
+        return registry.getVersion();
+    }
+
+    /**
+     * 获取咒语的提示词，同一版本的注册表中只生成一次
+     */
     public static String getSpellPrompt(String spellName){
-        Spell spell = quickMap.get(spellName);
-        Asserts.check(spell != null, "找不到对应名称（"+spellName+"）的咒语！");
-        SpellPrompt spellPrompt = new SpellPrompt(spell);
-        return spellPrompt.getPrompt();
+        String spellPrompt = registry.getSpellPrompt(spellName);
+        Asserts.check(spellPrompt != null, "找不到对应名称（"+spellName+"）的咒语！");
+        return spellPrompt;
     }
 
+    /**
+     * 获取咒语书的提示词，咒语按次序和名称排列，同一版本的注册表中只生成一次
+     */
     public static String getSpellBookPrompt(String bookName){
-        Map<String, Spell> spellBookMap = magicSpellBooks.get(bookName);
-        Asserts.check(spellBookMap != null, "找不到对应名称（"+bookName+"）的咒语书！");
-        StringBuilder result = new StringBuilder();
-        for (Spell spell : spellBookMap.values()) {
-            SpellPrompt spellPrompt = new SpellPrompt(spell);
-            result.append(spellPrompt.getPrompt()).append("\n");
-        }
-        return result.toString();
+        String bookPrompt = registry.getBookPrompt(bookName);
+        Asserts.check(bookPrompt != null, "找不到对应名称（"+bookName+"）的咒语书！");
+        return bookPrompt;
     }
 
     public static void registerSpell(String bookName, Spell spell) {
-        magicSpellBooks.computeIfAbsent(bookName, k -> new HashMap<String, Spell>());
-        magicSpellBooks.get(bookName).put(spell.getApiName(), spell);
-        Asserts.check(!quickMap.containsKey(spell.getApiName()), "存在重复的咒语，咒语名称："+spell.getApiName());
-        quickMap.put(spell.getApiName(), spell);
+        registerBook(bookName, Collections.singletonList(spell));
+    }
+
+    /**
+     * 向咒语书中添加咒语，咒语书不存在时创建。所有咒语要么全部注册成功，要么全部不注册。
+     */
+    public static void registerBook(String bookName, List<Spell> spells) {
+        synchronized (writeLock){
+            Map<String, Spell> current = registry.getBook(bookName);
+            Map<String, Spell> book = current == null ? new LinkedHashMap<>() : new LinkedHashMap<>(current);
+            checkDuplicates(book, spells);
+            for (Spell spell : compile(spells)) {
+                book.put(spell.getApiName(), spell);
+            }
+            registry = registry.withBook(bookName, book);
+        }
+    }
+
+    /**
+     * 用新的咒语整体替换咒语书，咒语书不存在时创建。替换前已开始的对话仍使用旧版本的咒语。
+     */
+    public static void replaceBook(String bookName, List<Spell> spells) {
+        synchronized (writeLock){
+            Map<String, Spell> book = new LinkedHashMap<>();
+            checkDuplicates(book, spells);
+            for (Spell spell : compile(spells)) {
+                book.put(spell.getApiName(), spell);
+            }
+            registry = registry.withBook(bookName, book);
+        }
+    }
+
+    /**
+     * 移除咒语书，同时关闭该书的线程池
+     * @return 咒语书不存在时返回false
+     */
+    public static boolean unregisterBook(String bookName) {
+        synchronized (writeLock){
+            if (registry.getBook(bookName) == null) {
+                return false;
+            }
+            registry = registry.withoutBook(bookName);
+            SpellThreadPool.shutdownBook(bookName);
+            return true;
+        }
     }
 
     public static List<Spell> getSpellsInBook(String bookName) {
-        Map<String, Spell> spellMap = magicSpellBooks.get(bookName);
+        Map<String, Spell> spellMap = registry.getBook(bookName);
         if(spellMap != null){
             return new ArrayList<>(spellMap.values());
         }
@@ -61,28 +130,131 @@ public class SpellManager {
     }
 
     public static List<Spell> getAllSpells() {
-        List<Spell> result = new ArrayList<>();
-        for (String bookName : magicSpellBooks.keySet()) {
-            result.addAll(getSpellsInBook(bookName));
-        }
-        return result;
+        return registry.getAllSpells();
+    }
+
+    /**
+     * 获取咒语的结果缓存，可用于查看命中率等统计数据
+     * @return 咒语不存在或不可缓存时返回null
+     */
+    public static SpellResultCache getResultCache(String spellName) {
+        Spell spell = registry.getSpell(spellName);
+        return spell == null ? null : spell.getResultCache();
     }
 
 
     public static String execSpell(String spell){
+        return execSpell(registry, spell);
+    }
+
+    /**
+     * 使用指定版本的注册表执行咒语
+     * @param registry 咒语注册表快照
+     * @param spell 咒语文本
+     */
+    public static String execSpell(SpellRegistry registry, String spell){
         List<String> spellParts = SpellUtil.getSpellParts(spell);
-        return doExecSpell(spellParts);
+        return doExecSpell(registry, spellParts);
     }
 
 
-    private static String doExecSpell(List<String> spellArgs) {
+    /**
+     * 在咒语线程池中异步执行咒语
+     * @param spell 咒语文本
+     * @return 完成时为咒语的执行结果
+     */
+    public static CompletableFuture<String> execSpellAsync(String spell){
+        return execSpellAsync(registry, spell);
+    }
+
+    /**
+     * 使用指定版本的注册表，在咒语所属咒语书的线程池中异步执行咒语。
+     * 超时、线程池已满时以ERROR:开头的文本作为结果；超时或取消返回的future时会中断执行咒语的线程。
+     * @param registry 咒语注册表快照
+     * @param spell 咒语文本
+     * @return 完成时为咒语的执行结果
+     */
+    public static CompletableFuture<String> execSpellAsync(SpellRegistry registry, String spell){
+        List<String> spellParts = SpellUtil.getSpellParts(spell);
+        String callName = spellParts.isEmpty() ? null : spellParts.get(0);
+        Spell callSpell = callName == null ? null : registry.getSpell(callName);
+        if (callSpell == null) {
+            // 找不到咒语时无需占用线程，直接给出错误结果
+            return CompletableFuture.completedFuture(doExecSpell(registry, spellParts));
+        }
+        String bookName = registry.getBookName(callName);
+        long timeoutMillis = getTimeoutMillis(callSpell, bookName);
+
+        CompletableFuture<String> result = new CompletableFuture<>();
+        Future<?> execution;
+        try {
+            execution = SpellThreadPool.forBook(bookName).submit(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                result.complete(doExecSpell(registry, spellParts));
+            });
+        } catch (RejectedExecutionException e) {
+            result.complete("ERROR:咒语书" + bookName + "繁忙，请稍后再试");
+            return result;
+        }
+        ScheduledFuture<?> timeout = SpellThreadPool.getTimer().schedule(() -> {
+            if (result.complete("ERROR:咒语执行超时（" + timeoutMillis + "ms）")) {
+                execution.cancel(true);
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        result.whenComplete((spellResult, e) -> {
+            timeout.cancel(false);
+            if (result.isCancelled()) {
+                execution.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 咒语的执行超时：咒语或其咒语书的注解 > 咒语书的配置项 > 全局配置项
+     */
+    private static long getTimeoutMillis(Spell spell, String bookName){
+        if (spell.getTimeoutMillis() > 0) {
+            return spell.getTimeoutMillis();
+        }
+        long defaultTimeout = Anole.getLongProperty("magicgpt.config.spell.timeout.millis", 60000L);
+        return Anole.getLongProperty("magicgpt.config.spell.book." + bookName + ".timeout.millis", defaultTimeout);
+    }
+
+
+    private static void checkDuplicates(Map<String, Spell> book, List<Spell> spells) {
+        Set<String> names = new HashSet<>();
+        for (Spell spell : spells) {
+            Asserts.check(!book.containsKey(spell.getApiName()) && names.add(spell.getApiName()), "存在重复的咒语，咒语名称："+spell.getApiName());
+        }
+    }
+
+    /**
+     * 注册时解析好调用器，执行时无需再反射查找；可缓存的咒语同时创建新的结果缓存。
+     * 编译结果放在新的咒语副本上，调用方传入的咒语和旧版本注册表中的咒语都不会被修改
+     */
+    private static List<Spell> compile(List<Spell> spells) {
+        List<Spell> compiled = new ArrayList<>(spells.size());
+        for (Spell spell : spells) {
+            Spell.Builder builder = spell.toBuilder().setInvoker(SpellInvoker.compile(spell));
+            if (spell.isCacheable()) {
+                builder.setResultCache(new SpellResultCache(TimeUnit.SECONDS.toMillis(spell.getCacheTtlSeconds()), spell.getCacheMaxEntries()));
+            }
+            compiled.add(builder.build());
+        }
+        return compiled;
+    }
+
+    private static String doExecSpell(SpellRegistry registry, List<String> spellArgs) {
         try{
             Assert.isNotEmpty(spellArgs,"咒语参数列表不为空");
             String callName = spellArgs.get(0);
             Assert.isNotBlank(callName,"咒语名称不为空");
             // 1. 根据callName找到对应的咒语对象。
-            Assert.judge(quickMap.get(callName) != null, "找不到名为 "+ callName +" 的咒语。");
-            Spell callSpell = quickMap.get(callName);
+            Spell callSpell = registry.getSpell(callName);
+            Assert.judge(callSpell != null, "找不到名为 "+ callName +" 的咒语。");
 
             // 2. 构建咒语执行任务
             spellArgs.remove(0);
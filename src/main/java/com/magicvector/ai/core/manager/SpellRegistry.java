@@ -0,0 +1,171 @@
+package com.magicvector.ai.core.manager;
+
+import com.magicvector.ai.core.Spell;
+import com.magicvector.ai.prompts.impl.SpellPrompt;
+import org.apache.http.util.Asserts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 咒语注册表的不可变快照。
+ * 每次注册、替换或移除咒语书都会生成一个新的版本，读取方持有的快照不会再发生变化，
+ * 因此一次对话可以在多轮中始终使用同一个版本的咒语。
+ * <p>
+ * 咒语书中的咒语按{@link Spell#getOrder()}和名称排列，与注册方式和注册顺序无关；
+ * 咒语和咒语书的提示词在同一版本中只生成一次，不同会话、不同节点生成的提示词逐字节相同，
+ * 便于命中模型服务商的提示词前缀缓存。
+ * </p>
+ */
+public final class SpellRegistry {
+
+    static final SpellRegistry EMPTY = new SpellRegistry(0L, Collections.<String, Map<String, Spell>>emptyMap());
+
+    private final long version;
+
+    /**
+     * 咒语书名 -> (咒语名 -> 咒语)，按注册顺序排列
+     */
+    private final Map<String, Map<String, Spell>> books;
+
+    /**
+     * 咒语名 -> 咒语
+     */
+    private final Map<String, Spell> spells;
+
+    /**
+     * 咒语名 -> 所属的咒语书名
+     */
+    private final Map<String, String> spellBooks;
+
+    /**
+     * 已生成的提示词，"#咒语书名"或"@咒语名" -> 提示词
+     */
+    private final Map<String, String> prompts = new ConcurrentHashMap<>();
+
+    private static final Comparator<Spell> SPELL_ORDER = Comparator.comparingInt(Spell::getOrder).thenComparing(Spell::getApiName);
+
+    private SpellRegistry(long version, Map<String, Map<String, Spell>> books){
+        this.version = version;
+        this.books = books;
+        Map<String, Spell> spells = new LinkedHashMap<>();
+        Map<String, String> spellBooks = new HashMap<>();
+        for (Map.Entry<String, Map<String, Spell>> book : books.entrySet()) {
+            for (Spell spell : book.getValue().values()) {
+                Asserts.check(!spells.containsKey(spell.getApiName()), "存在重复的咒语，咒语名称："+spell.getApiName());
+                spells.put(spell.getApiName(), spell);
+                spellBooks.put(spell.getApiName(), book.getKey());
+            }
+        }
+        this.spells = Collections.unmodifiableMap(spells);
+        this.spellBooks = spellBooks;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Spell getSpell(String spellName){
+        return spells.get(spellName);
+    }
+
+    /**
+     * @return 咒语所属的咒语书名，咒语不存在时返回null
+     */
+    public String getBookName(String spellName){
+        return spellBooks.get(spellName);
+    }
+
+    /**
+     * @return 咒语书中的咒语，不存在时返回null
+     */
+    public Map<String, Spell> getBook(String bookName){
+        return books.get(bookName);
+    }
+
+    public Set<String> getBookNames(){
+        return books.keySet();
+    }
+
+    public List<Spell> getAllSpells(){
+        return new ArrayList<>(spells.values());
+    }
+
+    /**
+     * @return 咒语的提示词，咒语不存在时返回null
+     */
+    public String getSpellPrompt(String spellName){
+        Spell spell = spells.get(spellName);
+        if (spell == null) {
+            return null;
+        }
+        String key = "@" + spellName;
+        String prompt = prompts.get(key);
+        if (prompt == null) {
+            prompt = cachePrompt(key, new SpellPrompt(spell).getPrompt());
+        }
+        return prompt;
+    }
+
+    /**
+     * @return 咒语书中所有咒语的提示词，咒语书不存在时返回null
+     */
+    public String getBookPrompt(String bookName){
+        Map<String, Spell> book = books.get(bookName);
+        if (book == null) {
+            return null;
+        }
+        String key = "#" + bookName;
+        String prompt = prompts.get(key);
+        if (prompt == null) {
+            StringBuilder result = new StringBuilder();
+            for (Spell spell : book.values()) {
+                result.append(getSpellPrompt(spell.getApiName())).append("\n");
+            }
+            prompt = cachePrompt(key, result.toString());
+        }
+        return prompt;
+    }
+
+    /**
+     * 在映射函数之外生成提示词后再放入缓存：咒语书的提示词由咒语的提示词拼成，
+     * 在computeIfAbsent的映射函数中再更新同一个ConcurrentHashMap是不允许的。
+     * 并发生成时结果相同，以先放入的为准。
+     */
+    private String cachePrompt(String key, String prompt){
+        String existing = prompts.putIfAbsent(key, prompt);
+        return existing != null ? existing : prompt;
+    }
+
+    /**
+     * 生成添加或整体替换了一本咒语书的新版本
+     */
+    SpellRegistry withBook(String bookName, Map<String, Spell> bookSpells){
+        List<Spell> sorted = new ArrayList<>(bookSpells.values());
+        sorted.sort(SPELL_ORDER);
+        Map<String, Spell> book = new LinkedHashMap<>();
+        for (Spell spell : sorted) {
+            book.put(spell.getApiName(), spell);
+        }
+        Map<String, Map<String, Spell>> newBooks = new LinkedHashMap<>(books);
+        newBooks.put(bookName, Collections.unmodifiableMap(book));
+        return new SpellRegistry(version + 1, Collections.unmodifiableMap(newBooks));
+    }
+
+    /**
+     * 生成移除了一本咒语书的新版本
+     */
+    SpellRegistry withoutBook(String bookName){
+        Map<String, Map<String, Spell>> newBooks = new LinkedHashMap<>(books);
+        newBooks.remove(bookName);
+        return new SpellRegistry(version + 1, Collections.unmodifiableMap(newBooks));
+    }
+
+}
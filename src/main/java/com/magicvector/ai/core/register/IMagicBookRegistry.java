@@ -0,0 +1,21 @@
+package com.magicvector.ai.core.register;
+
+/**
+ * 编译期生成的咒语书注册表，由注解处理器为每个{@link com.magicvector.ai.annotation.MagicBook}类生成，
+ * 运行时无需扫描类路径和反射即可得到咒语。
+ */
+public interface IMagicBookRegistry extends ISpellCollector {
+
+    /**
+     * 生成的注册表类名后缀
+     */
+    String CLASS_SUFFIX = "_SpellRegistry";
+
+    /**
+     * 索引文件，每行一个注册表类名
+     */
+    String INDEX_RESOURCE = "META-INF/magicgpt/spell-books";
+
+    String getBookName();
+
+}
@@ -1,6 +1,8 @@
 package com.magicvector.ai.core.register.impl;
 
 import com.magicvector.ai.annotation.MagicArg;
+import com.magicvector.ai.annotation.MagicBook;
+import com.magicvector.ai.annotation.Order;
 import com.magicvector.ai.annotation.SpellDefinition;
 import com.magicvector.ai.core.Spell;
 import com.magicvector.ai.core.register.ISpellCollector;
@@ -73,12 +75,25 @@ public class AnnotationCallSpellCollector implements ISpellCollector {
             String description = annotation.description();
             List<Arg> argList = getParameterAnnotationAsArgs(method);
 
+            long timeoutMillis = annotation.timeoutMillis();
+            MagicBook magicBook = method.getDeclaringClass().getAnnotation(MagicBook.class);
+            if (timeoutMillis <= 0 && magicBook != null) {
+                timeoutMillis = magicBook.timeoutMillis();
+            }
+
+            Order order = method.getAnnotation(Order.class);
             Spell spell = new Spell.Builder()
                     .setApiName(apiName)
                     .setDescription(description)
                     .setClassName(method.getDeclaringClass().getName())
                     .setMethodName(method.getName())
                     .setFeedArgs(argList)
+                    .setTimeoutMillis(timeoutMillis)
+                    .setCacheable(annotation.cacheable())
+                    .setCacheTtlSeconds(annotation.cacheTtlSeconds())
+                    .setCacheMaxEntries(annotation.cacheMaxEntries())
+                    .setMaxResultTokens(annotation.maxResultTokens())
+                    .setOrder(order == null ? 0 : order.value())
                     .build();
 
             spells.add(spell);
@@ -0,0 +1,298 @@
+package com.magicvector.ai.core.register.processor;
+
+import com.magicvector.ai.annotation.MagicArg;
+import com.magicvector.ai.annotation.MagicBook;
+import com.magicvector.ai.annotation.Order;
+import com.magicvector.ai.annotation.SpellDefinition;
+import com.magicvector.ai.core.register.IMagicBookRegistry;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 咒语注解处理器：在编译期校验{@link SpellDefinition}和{@link MagicArg}的用法，
+ * 为每个{@link MagicBook}类生成注册表类，并将注册表类名写入{@link IMagicBookRegistry#INDEX_RESOURCE}索引，
+ * 使MagicApp启动时无需扫描类路径。
+ */
+public class SpellRegistryProcessor extends AbstractProcessor {
+
+    private static final String STRING_TYPE = String.class.getName();
+
+    private Messager messager;
+
+    private Filer filer;
+
+    private Elements elements;
+
+    /**
+     * 所有轮次生成的注册表类名，在最后一轮写入索引
+     */
+    private final Set<String> registries = new LinkedHashSet<>();
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        this.messager = processingEnv.getMessager();
+        this.filer = processingEnv.getFiler();
+        this.elements = processingEnv.getElementUtils();
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        Set<String> types = new HashSet<>();
+        types.add(MagicBook.class.getCanonicalName());
+        types.add(SpellDefinition.class.getCanonicalName());
+        return types;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeIndex();
+            return false;
+        }
+
+        for (Element element : roundEnv.getElementsAnnotatedWith(SpellDefinition.class)) {
+            Element enclosing = element.getEnclosingElement();
+            if (enclosing.getAnnotation(MagicBook.class) == null) {
+                messager.printMessage(Diagnostic.Kind.WARNING,
+                        "The spell will not be registered because its class is not annotated with @MagicBook.", element);
+            }
+        }
+
+        for (Element element : roundEnv.getElementsAnnotatedWith(MagicBook.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "@MagicBook can only be used on classes.", element);
+                continue;
+            }
+            TypeElement bookType = (TypeElement) element;
+            String bookName = bookType.getAnnotation(MagicBook.class).name();
+            if (bookName == null || bookName.trim().isEmpty()) {
+                messager.printMessage(Diagnostic.Kind.ERROR,
+                        "Class " + bookType.getQualifiedName() + " has an invalid @MagicBook annotation: 'name' cannot be null or empty", bookType);
+                continue;
+            }
+            List<ExecutableElement> spellMethods = collectSpellMethods(bookType);
+            if (spellMethods != null) {
+                generateRegistry(bookType, bookName, spellMethods);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 收集并校验咒语方法
+     * @return 校验失败时返回null
+     */
+    private List<ExecutableElement> collectSpellMethods(TypeElement bookType) {
+        List<ExecutableElement> spellMethods = new ArrayList<>();
+        boolean valid = true;
+        for (Element member : bookType.getEnclosedElements()) {
+            if (member.getKind() != ElementKind.METHOD || member.getAnnotation(SpellDefinition.class) == null) {
+                continue;
+            }
+            ExecutableElement method = (ExecutableElement) member;
+            if (!method.getModifiers().contains(Modifier.STATIC)) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "SpellDefinition注解只能用于静态方法", method);
+                valid = false;
+            }
+            if (!method.getModifiers().contains(Modifier.PUBLIC)) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Methods annotated with @SpellDefinition must be public.", method);
+                valid = false;
+            }
+            for (VariableElement parameter : method.getParameters()) {
+                if (!STRING_TYPE.equals(parameter.asType().toString())) {
+                    messager.printMessage(Diagnostic.Kind.ERROR,
+                            "MagicGPT only supports calling local methods that have string types as input parameters.", parameter);
+                    valid = false;
+                }
+                if (parameter.getAnnotation(MagicArg.class) == null) {
+                    messager.printMessage(Diagnostic.Kind.ERROR,
+                            "In MagicGPT, each parameter of the local function executed by each spell must be annotated with the @MagicArg annotation.", parameter);
+                    valid = false;
+                }
+            }
+            spellMethods.add(method);
+        }
+        return valid ? spellMethods : null;
+    }
+
+    private void generateRegistry(TypeElement bookType, String bookName, List<ExecutableElement> spellMethods) {
+        PackageElement packageElement = elements.getPackageOf(bookType);
+        String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+        String binaryName = elements.getBinaryName(bookType).toString();
+        String simpleName = binaryName.substring(packageName.isEmpty() ? 0 : packageName.length() + 1).replace('$', '_');
+        String registryName = simpleName + IMagicBookRegistry.CLASS_SUFFIX;
+        String registryQualifiedName = packageName.isEmpty() ? registryName : packageName + "." + registryName;
+
+        StringBuilder code = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            code.append("package ").append(packageName).append(";\n\n");
+        }
+        code.append("/**\n")
+                .append(" * Generated by ").append(SpellRegistryProcessor.class.getName()).append(" for ").append(bookType.getQualifiedName()).append(", do not edit.\n")
+                .append(" */\n")
+                .append("public class ").append(registryName).append(" implements ").append(IMagicBookRegistry.class.getName()).append(" {\n\n")
+                .append("    @Override\n")
+                .append("    public String getBookName() {\n")
+                .append("        return ").append(literal(bookName)).append(";\n")
+                .append("    }\n\n")
+                .append("    @Override\n")
+                .append("    public java.util.List<com.magicvector.ai.core.Spell> collect() {\n")
+                .append("        java.util.List<com.magicvector.ai.core.Spell> spells = new java.util.ArrayList<>();\n");
+        for (int index = 0; index < spellMethods.size(); index++) {
+            ExecutableElement method = spellMethods.get(index);
+            // 重载的咒语方法同名，局部变量按序号命名
+            String argsVariable = "args" + index;
+            SpellDefinition definition = method.getAnnotation(SpellDefinition.class);
+            String apiName = definition.name();
+            if (apiName == null || apiName.isEmpty()) {
+                apiName = method.getSimpleName().toString();
+            }
+            Order order = method.getAnnotation(Order.class);
+            long timeoutMillis = definition.timeoutMillis() > 0
+                    ? definition.timeoutMillis()
+                    : bookType.getAnnotation(MagicBook.class).timeoutMillis();
+            code.append("        java.util.List<com.magicvector.ai.model.Arg> ").append(argsVariable).append(" = new java.util.ArrayList<>();\n");
+            for (VariableElement parameter : method.getParameters()) {
+                MagicArg magicArg = parameter.getAnnotation(MagicArg.class);
+                code.append("        ").append(argsVariable).append(".add(new com.magicvector.ai.model.Arg(false, ")
+                        .append(literal(magicArg.name())).append(", ")
+                        .append(literal(magicArg.description())).append(", ")
+                        .append(magicArg.required()).append("));\n");
+            }
+            code.append("        spells.add(new com.magicvector.ai.core.Spell.Builder()\n")
+                    .append("                .setApiName(").append(literal(apiName)).append(")\n")
+                    .append("                .setDescription(").append(literal(definition.description())).append(")\n")
+                    .append("                .setClassName(").append(literal(binaryName)).append(")\n")
+                    .append("                .setMethodName(").append(literal(method.getSimpleName().toString())).append(")\n")
+                    .append("                .setFeedArgs(").append(argsVariable).append(")\n")
+                    .append("                .setTimeoutMillis(").append(timeoutMillis).append("L)\n")
+                    .append("                .setCacheable(").append(definition.cacheable()).append(")\n")
+                    .append("                .setCacheTtlSeconds(").append(definition.cacheTtlSeconds()).append("L)\n")
+                    .append("                .setCacheMaxEntries(").append(definition.cacheMaxEntries()).append(")\n")
+                    .append("                .setMaxResultTokens(").append(definition.maxResultTokens()).append(")\n")
+                    .append("                .setOrder(").append(order == null ? 0 : order.value()).append(")\n")
+                    .append("                .build());\n");
+        }
+        code.append("        return spells;\n")
+                .append("    }\n\n")
+                .append("}\n");
+
+        try {
+            JavaFileObject sourceFile = filer.createSourceFile(registryQualifiedName, bookType);
+            try (Writer writer = sourceFile.openWriter()) {
+                writer.write(code.toString());
+            }
+            registries.add(registryQualifiedName);
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Fail to generate spell registry: " + e.getMessage(), bookType);
+        }
+    }
+
+    /**
+     * 写入索引。增量编译时本次只生成了重新编译的咒语书的注册表，因此先合并输出目录中已有的索引，
+     * 保留其中仍然存在的注册表类。
+     */
+    private void writeIndex() {
+        if (registries.isEmpty()) {
+            return;
+        }
+        Set<String> merged = new LinkedHashSet<>(registries);
+        for (String registry : readExistingIndex()) {
+            if (!merged.contains(registry) && elements.getTypeElement(registry) != null) {
+                merged.add(registry);
+            }
+        }
+        try {
+            FileObject index = filer.createResource(StandardLocation.CLASS_OUTPUT, "", IMagicBookRegistry.INDEX_RESOURCE);
+            try (Writer writer = new OutputStreamWriter(index.openOutputStream(), StandardCharsets.UTF_8)) {
+                for (String registry : merged) {
+                    writer.write(registry);
+                    writer.write("\n");
+                }
+            }
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Fail to write spell registry index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return 输出目录中已有的索引内容，不存在时返回空
+     */
+    private List<String> readExistingIndex() {
+        List<String> existing = new ArrayList<>();
+        try {
+            FileObject index = filer.getResource(StandardLocation.CLASS_OUTPUT, "", IMagicBookRegistry.INDEX_RESOURCE);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(index.openInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (!line.isEmpty()) {
+                        existing.add(line);
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // 全量编译时没有已有的索引
+        }
+        return existing;
+    }
+
+    /**
+     * 转换为Java字符串字面量
+     */
+    private static String literal(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+}
@@ -7,4 +7,13 @@ public class RemoteLLMCallException extends RuntimeException{
         super("Fail to call the remote llm named '"+target+"'.");
     }
 
+    /**
+     * 远端返回了错误响应
+     * @param statusCode HTTP状态码
+     * @param body 响应内容
+     */
+    public RemoteLLMCallException(int statusCode, String body){
+        super("The remote llm responded with HTTP " + statusCode + ": " + body);
+    }
+
 }
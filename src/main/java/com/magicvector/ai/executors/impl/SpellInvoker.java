@@ -0,0 +1,71 @@
+package com.magicvector.ai.executors.impl;
+
+import com.magicvector.ai.core.Spell;
+import com.magicvector.ai.exceptions.MagicGPTGeneralException;
+import com.magicvector.ai.util.ClassUtil;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+/**
+ * 咒语调用器：注册时将咒语对应的方法解析为统一签名 (Object[])Object 的MethodHandle，
+ * 执行时直接调用，不再需要每次都加载类、查找方法和反射调用。
+ */
+public class SpellInvoker {
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private final MethodHandle handle;
+
+    private final int parameterCount;
+
+    private SpellInvoker(MethodHandle handle, int parameterCount){
+        this.handle = handle;
+        this.parameterCount = parameterCount;
+    }
+
+    /**
+     * 解析咒语对应的方法并生成调用器
+     * @param spell 咒语
+     * @return 调用器
+     */
+    public static SpellInvoker compile(Spell spell){
+        try {
+            Class<?> clazz = Class.forName(spell.getClassName());
+            Method method = ClassUtil.getMethodByName(clazz, spell.getMethodName());
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            MethodHandle handle = lookup.unreflect(method);
+            if (!Modifier.isStatic(method.getModifiers())) {
+                // 非静态方法，每次调用前创建一个新的实例作为第一个参数
+                MethodHandle constructor = lookup.findConstructor(clazz, MethodType.methodType(void.class));
+                handle = MethodHandles.foldArguments(handle, constructor);
+            }
+            int parameterCount = method.getParameterCount();
+            handle = handle.asSpreader(Object[].class, parameterCount)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+            return new SpellInvoker(handle, parameterCount);
+        } catch (MagicGPTGeneralException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MagicGPTGeneralException("Fail to resolve the method of spell '" + spell.getApiName() + "', details: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 调用咒语对应的方法
+     * @param values 参数值
+     * @return 方法的返回值
+     */
+    public Object invoke(List<String> values) throws Throwable {
+        Object[] params = NO_ARGS;
+        if (parameterCount > 0 && values != null) {
+            params = values.toArray(new Object[0]);
+        }
+        return (Object) handle.invokeExact(params);
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.magicvector.ai.executors.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 幂等咒语的执行结果缓存，以参数列表为键，有过期时间和条目上限。
+ * <p>
+ * 同一参数的并发调用只会有一个真正执行，其余调用等待同一个结果；
+ * 执行失败或返回ERROR:开头的结果不会被缓存。
+ * 超过条目上限时按写入顺序淘汰最早的条目。
+ * </p>
+ * 线程安全。
+ */
+public class SpellResultCache {
+
+    private static final String ERROR_PREFIX = "ERROR:";
+
+    private final long ttlMillis;
+
+    private final int maxEntries;
+
+    private final ConcurrentHashMap<List<String>, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * 按写入顺序排列的条目，用于淘汰
+     */
+    private final ConcurrentLinkedQueue<Entry> insertionOrder = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    public SpellResultCache(long ttlMillis, int maxEntries){
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * 获取缓存的结果，不存在或已过期时执行loader并缓存其结果
+     * @param argValues 解析后的咒语参数
+     * @param loader 实际执行咒语的逻辑
+     * @return 咒语的执行结果
+     */
+    public String get(List<String> argValues, Supplier<String> loader){
+        List<String> key = argValues == null
+                ? Collections.<String>emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(argValues));
+        while (true) {
+            Entry entry = entries.get(key);
+            if (entry != null && !entry.isExpired()) {
+                hits.increment();
+                return entry.await();
+            }
+            Entry created = new Entry(key);
+            boolean won = entry == null
+                    ? entries.putIfAbsent(key, created) == null
+                    : entries.replace(key, entry, created);
+            if (!won) {
+                // 其他线程已经开始加载，重新读取
+                continue;
+            }
+            misses.increment();
+            if (entry != null) {
+                // 过期的旧条目不再参与淘汰
+                insertionOrder.remove(entry);
+            }
+            return load(created, loader);
+        }
+    }
+
+    private String load(Entry entry, Supplier<String> loader){
+        String result;
+        try {
+            result = loader.get();
+        } catch (RuntimeException e) {
+            entries.remove(entry.key, entry);
+            entry.value.completeExceptionally(e);
+            throw e;
+        }
+        entry.value.complete(result);
+        if (result == null || result.startsWith(ERROR_PREFIX)) {
+            entries.remove(entry.key, entry);
+            return result;
+        }
+        entry.expireAt = System.currentTimeMillis() + ttlMillis;
+        insertionOrder.add(entry);
+        evictIfNecessary();
+        return result;
+    }
+
+    private void evictIfNecessary(){
+        while (entries.size() > maxEntries) {
+            Entry eldest = insertionOrder.poll();
+            if (eldest == null) {
+                return;
+            }
+            // 队列中可能有已被替换的旧条目，只移除仍在缓存中的
+            if (entries.remove(eldest.key, eldest)) {
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * 清空缓存，统计数据保留
+     */
+    public void clear(){
+        entries.clear();
+        insertionOrder.clear();
+    }
+
+    public int size(){
+        return entries.size();
+    }
+
+    public long getHitCount(){
+        return hits.sum();
+    }
+
+    public long getMissCount(){
+        return misses.sum();
+    }
+
+    public long getEvictionCount(){
+        return evictions.sum();
+    }
+
+    /**
+     * @return 命中率，没有请求时为0
+     */
+    public double getHitRate(){
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0D : (double) hit / total;
+    }
+
+
+    private static class Entry {
+
+        private final List<String> key;
+
+        private final CompletableFuture<String> value = new CompletableFuture<>();
+
+        /**
+         * 加载完成前为Long.MAX_VALUE，避免等待中的条目被当作过期
+         */
+        private volatile long expireAt = Long.MAX_VALUE;
+
+        private Entry(List<String> key){
+            this.key = key;
+        }
+
+        private boolean isExpired(){
+            return System.currentTimeMillis() >= expireAt;
+        }
+
+        private String await(){
+            try {
+                return value.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.magicvector.ai.executors.impl;
+
+import com.github.tbwork.anole.loader.Anole;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 执行咒语的线程池，有界且线程空闲后自动回收。
+ * 每本咒语书使用相互隔离的线程池（舱壁），队列已满时拒绝提交而不是占用提交者线程，
+ * 避免某本书的后端变慢时拖垮其他咒语书或请求线程。
+ */
+public class SpellThreadPool {
+
+    private static final ConcurrentHashMap<String, ExecutorService> bookPools = new ConcurrentHashMap<>();
+
+    private static volatile ScheduledExecutorService timer;
+
+    /**
+     * 获取咒语书专属的线程池，队列已满时提交会抛出{@link java.util.concurrent.RejectedExecutionException}
+     * @param bookName 咒语书名
+     */
+    public static ExecutorService forBook(String bookName){
+        return bookPools.computeIfAbsent(bookName, SpellThreadPool::createBookThreadPool);
+    }
+
+    /**
+     * 移除并关闭咒语书的线程池，已提交的咒语会继续执行完。
+     * 此后仍持有旧版本注册表的对话再执行该书的咒语时，会重新创建线程池，空闲后线程自动回收。
+     * @param bookName 咒语书名
+     */
+    public static void shutdownBook(String bookName){
+        ExecutorService threadPool = bookPools.remove(bookName);
+        if (threadPool != null) {
+            threadPool.shutdown();
+        }
+    }
+
+    /**
+     * 用于咒语超时计时的调度器
+     */
+    public static ScheduledExecutorService getTimer(){
+        if(timer == null){
+            synchronized (SpellThreadPool.class){
+                if(timer == null){
+                    ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new SpellThreadFactory("magicgpt-spell-timer-"));
+                    scheduler.setRemoveOnCancelPolicy(true);
+                    timer = scheduler;
+                }
+            }
+        }
+        return timer;
+    }
+
+    private static ExecutorService createBookThreadPool(String bookName){
+        int maxSize = Anole.getIntProperty("magicgpt.config.spell.book." + bookName + ".threads.maxSize",
+                Anole.getIntProperty("magicgpt.config.spell.book.threads.maxSize", 32));
+        int queueSize = Anole.getIntProperty("magicgpt.config.spell.book." + bookName + ".threads.queueSize",
+                Anole.getIntProperty("magicgpt.config.spell.book.threads.queueSize", 256));
+        long keepAliveSeconds = Anole.getLongProperty("magicgpt.config.spell.threads.keepAliveTime.second", 60L);
+
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
+                maxSize,
+                maxSize,
+                keepAliveSeconds,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueSize),
+                new SpellThreadFactory("magicgpt-spell-" + bookName + "-"),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        threadPool.allowCoreThreadTimeOut(true);
+        return threadPool;
+    }
+
+    private static class SpellThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        private final String namePrefix;
+
+        private SpellThreadFactory(String namePrefix){
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+package com.magicvector.ai.executors.store;
+
+/**
+ * 咒语结果存储：过长的咒语结果只把摘录放入对话，完整内容保存在这里，AI可以通过句柄分页查看。
+ * 实现需要是线程安全的。
+ */
+public interface ISpellResultStore {
+
+    /**
+     * 保存完整的咒语结果
+     * @param content 咒语结果
+     * @return 读取结果使用的句柄
+     */
+    String save(String content);
+
+    /**
+     * 读取保存的咒语结果
+     * @param handle 保存时返回的句柄，可能来自AI的输出，实现需要校验
+     * @return 句柄无效或结果已过期时返回null
+     */
+    String load(String handle);
+
+}
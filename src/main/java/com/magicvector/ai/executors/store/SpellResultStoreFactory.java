@@ -0,0 +1,30 @@
+package com.magicvector.ai.executors.store;
+
+import com.magicvector.ai.executors.store.impl.FileSpellResultStore;
+
+/**
+ * 默认咒语结果存储的工厂，默认将结果保存在本地文件中
+ */
+public class SpellResultStoreFactory {
+
+    private static volatile ISpellResultStore instance;
+
+    public static ISpellResultStore getInstance(){
+        if(instance == null){
+            synchronized (SpellResultStoreFactory.class){
+                if(instance == null){
+                    instance = new FileSpellResultStore();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 替换默认的咒语结果存储，例如多个实例共享的存储
+     */
+    public static void setInstance(ISpellResultStore store){
+        instance = store;
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.magicvector.ai.executors.store.impl;
+
+import com.github.tbwork.anole.loader.Anole;
+import com.magicvector.ai.exceptions.MagicGPTGeneralException;
+import com.magicvector.ai.executors.store.ISpellResultStore;
+import com.magicvector.ai.util.IDUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 每个咒语结果保存为目录下的一个文件，文件名即句柄。
+ * 超过有效期的结果在读取时视为不存在，并在保存新结果时顺带清理（每分钟至多一次）。
+ */
+public class FileSpellResultStore implements ISpellResultStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileSpellResultStore.class);
+
+    /**
+     * 句柄只能由字母和数字组成，避免AI给出的句柄访问到目录之外的文件
+     */
+    private static final Pattern HANDLE_PATTERN = Pattern.compile("[0-9a-zA-Z]{1,64}");
+
+    private static final String SUFFIX = ".txt";
+
+    private static final long CLEANUP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final File directory;
+
+    private final long ttlMillis;
+
+    private final AtomicLong lastCleanupTime = new AtomicLong(0L);
+
+    public FileSpellResultStore(){
+        this(new File(Anole.getProperty("magicgpt.config.spell.result.spill.dir", System.getProperty("java.io.tmpdir") + File.separator + "magicgpt-spell-results")),
+                TimeUnit.MINUTES.toMillis(Anole.getLongProperty("magicgpt.config.spell.result.spill.ttl.minutes", 60L)));
+    }
+
+    public FileSpellResultStore(File directory, long ttlMillis){
+        this.directory = directory;
+        this.ttlMillis = ttlMillis;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new MagicGPTGeneralException("Fail to create spell result directory " + directory);
+        }
+    }
+
+    @Override
+    public String save(String content) {
+        cleanupIfNecessary();
+        String handle = IDUtil.getUniqueId();
+        try {
+            Files.write(new File(directory, handle + SUFFIX).toPath(), content.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new MagicGPTGeneralException("Fail to save spell result: " + e.getMessage());
+        }
+        return handle;
+    }
+
+    @Override
+    public String load(String handle) {
+        if (handle == null || !HANDLE_PATTERN.matcher(handle).matches()) {
+            return null;
+        }
+        File file = new File(directory, handle + SUFFIX);
+        if (!file.isFile() || isExpired(file, System.currentTimeMillis())) {
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new MagicGPTGeneralException("Fail to read spell result " + handle + ": " + e.getMessage());
+        }
+    }
+
+    private boolean isExpired(File file, long now) {
+        return ttlMillis > 0 && now - file.lastModified() > ttlMillis;
+    }
+
+    private void cleanupIfNecessary() {
+        long now = System.currentTimeMillis();
+        long last = lastCleanupTime.get();
+        if (ttlMillis <= 0 || now - last < CLEANUP_INTERVAL_MILLIS || !lastCleanupTime.compareAndSet(last, now)) {
+            return;
+        }
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        int removed = 0;
+        for (File file : files) {
+            if (isExpired(file, now) && file.delete()) {
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            logger.debug("已清理{}个过期的咒语结果。", removed);
+        }
+    }
+
+}
@@ -0,0 +1,216 @@
+package com.magicvector.ai.prompts.template;
+
+import com.magicvector.ai.core.manager.SpellManager;
+import com.magicvector.ai.core.manager.SpellRegistry;
+import org.apache.http.util.Asserts;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 预编译的提示词模板。
+ * <p>
+ * 模板只解析一次，之后每次渲染只需按顺序拼接文本片段和表达式的值，不再使用正则表达式。支持三类表达式：
+ * <ul>
+ *     <li>#{book}：咒语书中所有咒语的提示词</li>
+ *     <li>@{spell}：单个咒语的提示词</li>
+ *     <li>${param}：渲染时传入的参数，参数名只能由字母、数字和下划线组成，没有传入时保留原样</li>
+ * </ul>
+ * 没有参数表达式的模板会缓存最近一次的渲染结果，咒语注册表的版本不变时直接返回。
+ * 解析出的片段不可变，实例可以在多个线程中共享。
+ * </p>
+ */
+public final class PromptTemplate {
+
+    public static final int SPELL_BOOK = 1;
+
+    public static final int SPELL = 1 << 1;
+
+    public static final int PARAM = 1 << 2;
+
+    public static final int ALL = SPELL_BOOK | SPELL | PARAM;
+
+    /**
+     * 片段的文本，文本片段为内容本身，表达式片段为键
+     */
+    private final String[] texts;
+
+    /**
+     * 片段的类型，0为文本
+     */
+    private final int[] kinds;
+
+    /**
+     * 所有文本片段的长度之和
+     */
+    private final int literalLength;
+
+    private final boolean hasParams;
+
+    private volatile Rendered lastRendered;
+
+    private PromptTemplate(String[] texts, int[] kinds){
+        this.texts = texts;
+        this.kinds = kinds;
+        int literalLength = 0;
+        boolean hasParams = false;
+        for (int i = 0; i < texts.length; i++) {
+            if (kinds[i] == 0) {
+                literalLength += texts[i].length();
+            } else if (kinds[i] == PARAM) {
+                hasParams = true;
+            }
+        }
+        this.literalLength = literalLength;
+        this.hasParams = hasParams;
+    }
+
+    /**
+     * 编译模板，识别所有类型的表达式
+     */
+    public static PromptTemplate compile(String template){
+        return compile(template, ALL);
+    }
+
+    /**
+     * 编译模板
+     * @param template 模板
+     * @param syntaxes 需要识别的表达式类型，{@link #SPELL_BOOK}、{@link #SPELL}、{@link #PARAM}的组合，其他表达式作为普通文本
+     */
+    public static PromptTemplate compile(String template, int syntaxes){
+        List<String> texts = new ArrayList<>();
+        List<Integer> kinds = new ArrayList<>();
+        int length = template.length();
+        int literalStart = 0;
+        int i = 0;
+        while (i < length - 1) {
+            int kind = kindOf(template.charAt(i)) & syntaxes;
+            if (kind == 0 || template.charAt(i + 1) != '{') {
+                i++;
+                continue;
+            }
+            int end = template.indexOf('}', i + 2);
+            if (end < 0) {
+                break;
+            }
+            String key = template.substring(i + 2, end);
+            if (key.isEmpty() || (kind == PARAM && !isWord(key))) {
+                i++;
+                continue;
+            }
+            if (i > literalStart) {
+                texts.add(template.substring(literalStart, i));
+                kinds.add(0);
+            }
+            texts.add(key);
+            kinds.add(kind);
+            i = end + 1;
+            literalStart = i;
+        }
+        if (literalStart < length) {
+            texts.add(template.substring(literalStart));
+            kinds.add(0);
+        }
+        int[] kindArray = new int[kinds.size()];
+        for (int k = 0; k < kindArray.length; k++) {
+            kindArray[k] = kinds.get(k);
+        }
+        return new PromptTemplate(texts.toArray(new String[0]), kindArray);
+    }
+
+    /**
+     * 渲染没有参数的模板
+     */
+    public String render(){
+        return render(null);
+    }
+
+    /**
+     * 渲染模板，咒语和咒语书使用当前版本的注册表
+     * @param params 参数，可为空
+     * @return 渲染结果
+     */
+    public String render(Map<String, String> params){
+        SpellRegistry registry = SpellManager.getRegistry();
+        Rendered rendered = lastRendered;
+        if (!hasParams && rendered != null && rendered.version == registry.getVersion()) {
+            return rendered.text;
+        }
+
+        // 先求出所有表达式的值，再按准确的总长度一次拼接
+        String[] values = new String[texts.length];
+        int totalLength = literalLength;
+        for (int i = 0; i < texts.length; i++) {
+            if (kinds[i] == 0) {
+                continue;
+            }
+            values[i] = resolve(registry, kinds[i], texts[i], params);
+            totalLength += values[i].length();
+        }
+        StringBuilder result = new StringBuilder(totalLength);
+        for (int i = 0; i < texts.length; i++) {
+            result.append(kinds[i] == 0 ? texts[i] : values[i]);
+        }
+        String text = result.toString();
+        if (!hasParams) {
+            lastRendered = new Rendered(registry.getVersion(), text);
+        }
+        return text;
+    }
+
+    private static String resolve(SpellRegistry registry, int kind, String key, Map<String, String> params){
+        switch (kind) {
+            case SPELL_BOOK:
+                String bookPrompt = registry.getBookPrompt(key);
+                Asserts.check(bookPrompt != null, "找不到对应名称（"+key+"）的咒语书！");
+                return bookPrompt;
+            case SPELL:
+                String spellPrompt = registry.getSpellPrompt(key);
+                Asserts.check(spellPrompt != null, "找不到对应名称（"+key+"）的咒语！");
+                return spellPrompt;
+            default:
+                String value = params == null ? null : params.get(key);
+                return value != null ? value : "${" + key + "}";
+        }
+    }
+
+    private static int kindOf(char c){
+        switch (c) {
+            case '#':
+                return SPELL_BOOK;
+            case '@':
+                return SPELL;
+            case '$':
+                return PARAM;
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean isWord(String key){
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 某个注册表版本下的渲染结果
+     */
+    private static final class Rendered {
+
+        private final long version;
+
+        private final String text;
+
+        private Rendered(long version, String text){
+            this.version = version;
+            this.text = text;
+        }
+    }
+
+}
@@ -0,0 +1,392 @@
+package com.magicvector.ai.session;
+
+import com.magicvector.ai.wizards.IChatWizard;
+import com.magicvector.ai.wizards.model.MagicChat;
+import com.magicvector.ai.wizards.model.MagicMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * 会话：一个会话标识对应一个对话上下文，以及一个接收用户消息的信箱。
+ * <p>
+ * 魔法师忙碌时到达的消息不会被拒绝，而是进入信箱；魔法师回到空闲后，
+ * 信箱中积累的所有消息合并为一条用户消息，只调用一次AI，回答同时交给这些消息的发送者。
+ * 同一会话的回合严格串行执行，等待中的消息不占用线程；回合通过魔法师的异步接口执行，等待AI回答期间也不占用线程。
+ * </p>
+ */
+public class MagicSession {
+
+    private static final Logger logger = LoggerFactory.getLogger(MagicSession.class);
+
+    private static final String MESSAGE_SEPARATOR = "\n";
+
+    private final String sessionId;
+
+    private final MagicChat chat;
+
+    private final IChatWizard chatWizard;
+
+    /**
+     * 等待执行的回合，受this保护
+     */
+    private final Deque<Turn> mailbox = new ArrayDeque<>();
+
+    /**
+     * 是否已有回合在执行或已被调度，受this保护
+     */
+    private boolean running = false;
+
+    /**
+     * 会话是否已关闭，关闭后不再接受回合，受this保护
+     */
+    private boolean closed = false;
+
+    private volatile long lastAccessTime = System.currentTimeMillis();
+
+    /**
+     * 对话占用内存的估算值，只在没有其他线程修改对话时（创建时和每个回合结束时）重新计算
+     */
+    private volatile long estimatedBytes;
+
+    public MagicSession(String sessionId, MagicChat chat, IChatWizard chatWizard){
+        this.sessionId = sessionId;
+        this.chat = chat;
+        this.chatWizard = chatWizard;
+        this.estimatedBytes = estimateBytes(chat);
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public MagicChat getChat() {
+        return chat;
+    }
+
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    /**
+     * @return 最近一个回合结束时对话占用内存的估算值（字节），可以在任意线程读取
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * @return 是否有回合正在执行或等待执行
+     */
+    public synchronized boolean isBusy() {
+        return running || !mailbox.isEmpty();
+    }
+
+    /**
+     * 投递一个回合
+     */
+    public synchronized OfferResult offer(Turn turn){
+        if (closed) {
+            return OfferResult.CLOSED;
+        }
+        lastAccessTime = System.currentTimeMillis();
+        mailbox.add(turn);
+        if (running) {
+            return OfferResult.QUEUED;
+        }
+        running = true;
+        return OfferResult.SCHEDULE;
+    }
+
+    /**
+     * 将信箱中积累的所有消息合并为一个回合，通过魔法师的异步接口执行，只应由调度到该会话的线程调用。
+     * 调用线程只负责发起回合，等待AI回答期间不占用线程。控制回合不与消息合并，按投递的顺序单独执行。
+     * @return 回合结束时完成：期间又有新消息到达时为true，需要继续调度；否则会话回到空闲状态，为false
+     */
+    public CompletableFuture<Boolean> runNextBatchAsync(){
+        List<Turn> batch = pollBatch();
+        if (batch.isEmpty()) {
+            return CompletableFuture.completedFuture(finishBatch());
+        }
+        CompletableFuture<Void> executed = batch.get(0).isControl() ? control(batch.get(0)) : execute(batch);
+        return executed.thenApply(ignored -> {
+            // 仍在回合的完成链上统计，此时没有其他线程修改对话
+            estimatedBytes = estimateBytes(chat);
+            return finishBatch();
+        });
+    }
+
+    /**
+     * 回合结束，信箱为空时会话回到空闲状态
+     * @return 信箱中还有消息时返回true
+     */
+    private synchronized boolean finishBatch(){
+        if (mailbox.isEmpty()) {
+            running = false;
+            lastAccessTime = System.currentTimeMillis();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 如果会话在指定时间之后没有活动且没有回合，将其关闭
+     * @param deadline 最后活动时间早于该时间的会话才会被关闭
+     * @param beforeClose 关闭前对对话的处理，例如保存到存储中；抛出异常时会话不会被关闭
+     * @return 关闭成功返回true
+     */
+    synchronized boolean closeIfIdleSince(long deadline, Consumer<MagicChat> beforeClose){
+        if (running || !mailbox.isEmpty() || lastAccessTime >= deadline) {
+            return false;
+        }
+        beforeClose.accept(chat);
+        closed = true;
+        return true;
+    }
+
+    /**
+     * 关闭会话并取出所有等待中的回合
+     */
+    synchronized List<Turn> close(){
+        closed = true;
+        return drain();
+    }
+
+    /**
+     * 取出所有等待中的回合，会话回到空闲状态，用于调度失败
+     */
+    public synchronized List<Turn> drain(){
+        List<Turn> turns = new ArrayList<>(mailbox);
+        mailbox.clear();
+        running = false;
+        return turns;
+    }
+
+    /**
+     * 取出下一批回合：队首是控制回合时单独取出，否则取出下一个控制回合之前的所有消息
+     */
+    private synchronized List<Turn> pollBatch(){
+        List<Turn> turns = new ArrayList<>();
+        if (!mailbox.isEmpty() && mailbox.peek().isControl()) {
+            turns.add(mailbox.poll());
+            return turns;
+        }
+        while (!mailbox.isEmpty() && !mailbox.peek().isControl()) {
+            turns.add(mailbox.poll());
+        }
+        return turns;
+    }
+
+    /**
+     * 估算对话占用的内存字节数
+     */
+    private static long estimateBytes(MagicChat chat){
+        long bytes = 0;
+        for (MagicMessage message : chat.getChatContent()) {
+            String content = message.getContent();
+            bytes += 64 + (content == null ? 0 : (long) content.length() << 1);
+        }
+        return bytes;
+    }
+
+    /**
+     * 执行控制回合，此时没有其他回合在修改对话
+     */
+    private CompletableFuture<Void> control(Turn turn){
+        try {
+            turn.getAction().accept(chat);
+            turn.getResult().complete(null);
+        } catch (Throwable e) {
+            logger.error("会话{}的控制回合执行失败。", sessionId, e);
+            turn.getResult().completeExceptionally(e);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * 执行合并后的回合
+     * @return 回合结束且结果已交给所有发送者时完成
+     */
+    private CompletableFuture<Void> execute(List<Turn> batch){
+        StringBuilder userMessage = new StringBuilder();
+        List<OutputStream> outputStreams = new ArrayList<>();
+        for (Turn turn : batch) {
+            if (userMessage.length() > 0) {
+                userMessage.append(MESSAGE_SEPARATOR);
+            }
+            userMessage.append(turn.getUserMessage());
+            if (turn.getOutputStream() != null) {
+                outputStreams.add(turn.getOutputStream());
+            }
+        }
+        if (batch.size() > 1) {
+            logger.debug("会话{}合并了{}条消息。", sessionId, batch.size());
+        }
+        CompletableFuture<String> response;
+        try {
+            chat.appendUserMessage(userMessage.toString());
+            if (outputStreams.isEmpty()) {
+                response = chatWizard.doResponseAsync(chat);
+            } else if (outputStreams.size() == 1) {
+                response = chatWizard.doThinkAsync(chat, outputStreams.get(0));
+            } else {
+                response = chatWizard.doThinkAsync(chat, new BroadcastOutputStream(outputStreams));
+            }
+        } catch (Throwable e) {
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+        // 回合的结果总是交给发送者，返回的future本身不会异常结束，保证会话能回到空闲状态
+        return response.handle((aiResponse, e) -> {
+            if (e == null) {
+                for (Turn turn : batch) {
+                    turn.getResult().complete(aiResponse);
+                }
+                return null;
+            }
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            logger.error("会话{}的回合执行失败。", sessionId, cause);
+            for (Turn turn : batch) {
+                turn.getResult().completeExceptionally(cause);
+            }
+            return null;
+        });
+    }
+
+
+    public enum OfferResult {
+        /**
+         * 会话此前空闲，投递者需要调度执行
+         */
+        SCHEDULE,
+        /**
+         * 魔法师正在忙，消息已进入信箱，将在当前回合结束后与其他消息合并执行
+         */
+        QUEUED,
+        /**
+         * 会话已关闭，未接受
+         */
+        CLOSED
+    }
+
+
+    /**
+     * 会话中的一个回合：一条用户消息及其回答的去处，或者一个需要与其他回合串行执行的对话操作（控制回合）
+     */
+    public static class Turn {
+
+        private final String userMessage;
+
+        /**
+         * 流式输出的目标，为空时使用非流式回答
+         */
+        private final OutputStream outputStream;
+
+        /**
+         * 控制回合对对话的操作，消息回合为空
+         */
+        private final Consumer<MagicChat> action;
+
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+
+        public Turn(String userMessage, OutputStream outputStream){
+            this(userMessage, outputStream, null);
+        }
+
+        private Turn(String userMessage, OutputStream outputStream, Consumer<MagicChat> action){
+            this.userMessage = userMessage;
+            this.outputStream = outputStream;
+            this.action = action;
+        }
+
+        /**
+         * 创建控制回合，例如清空上下文。控制回合在此前投递的回合结束后执行，完成时结果为null
+         * @param action 对对话的操作
+         */
+        public static Turn control(Consumer<MagicChat> action){
+            return new Turn(null, null, action);
+        }
+
+        public boolean isControl() {
+            return action != null;
+        }
+
+        public Consumer<MagicChat> getAction() {
+            return action;
+        }
+
+        public String getUserMessage() {
+            return userMessage;
+        }
+
+        public OutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        /**
+         * @return 完成时为AI对该消息（或其合并后的消息）的回答
+         */
+        public CompletableFuture<String> getResult() {
+            return result;
+        }
+    }
+
+
+    /**
+     * 将合并回合的流式回答同时写给每个消息发送者的输出流
+     */
+    private static class BroadcastOutputStream extends OutputStream {
+
+        private final List<OutputStream> targets;
+
+        private BroadcastOutputStream(List<OutputStream> targets){
+            this.targets = targets;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            for (OutputStream target : targets) {
+                target.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (OutputStream target : targets) {
+                target.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            for (OutputStream target : targets) {
+                target.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (OutputStream target : targets) {
+                try {
+                    target.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,349 @@
+package com.magicvector.ai.session;
+
+import com.github.tbwork.anole.loader.Anole;
+import com.magicvector.ai.brain.Brain;
+import com.magicvector.ai.wizards.IChatWizard;
+import com.magicvector.ai.wizards.impl.ChatWizard;
+import com.magicvector.ai.session.store.IChatStore;
+import com.magicvector.ai.wizards.model.MagicChat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.magicvector.ai.util.PromptUtil.compileSpellPrompt;
+
+/**
+ * 会话管理器：以会话标识托管大量并发的对话，所有会话共享同一个魔法师（大脑）和咒语注册表。
+ * <p>
+ * 每个会话的回合通过信箱串行执行，忙碌期间到达的消息会合并为一个回合；不同会话的回合由有界线程池发起，
+ * 通过魔法师的异步接口执行，线程只在发起回合时占用，等待AI回答期间不占用，同时进行中的回合数不受线程数限制。
+ * 每个会话同一时刻最多有一个回合在执行，执行完一个回合后重新排队，保证会话之间的公平。
+ * 长时间不活跃且没有待执行回合的会话会被清理出内存；指定了对话存储时，清理前会保存对话，
+ * 下次访问该会话时再从存储中加载，并且可以设置内存预算，超出时按最久未访问的顺序提前清理。
+ * </p>
+ */
+public class SessionManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionManager.class);
+
+    private final IChatWizard chatWizard;
+
+    /**
+     * 编译好的系统提示词，所有会话共用
+     */
+    private final String systemPrompt;
+
+    private final ConcurrentHashMap<String, MagicSession> sessions = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor;
+
+    private final ScheduledExecutorService sweeper;
+
+    private final long idleTimeoutMillis;
+
+    /**
+     * 对话存储，为空时清理出内存的会话直接丢弃
+     */
+    private final IChatStore chatStore;
+
+    /**
+     * 内存中对话的估算字节数上限，小于等于0表示不限制
+     */
+    private final long memoryBudgetBytes;
+
+    public SessionManager(Brain brain, String systemPrompt){
+        this(brain, systemPrompt, 20);
+    }
+
+    /**
+     * @param brain 所有会话共享的大脑
+     * @param systemPrompt 系统提示词
+     * @param maxRounds 使用咒语的最大轮数（防止陷入无限调用）
+     */
+    public SessionManager(Brain brain, String systemPrompt, int maxRounds){
+        this(new ChatWizard(brain, maxRounds), systemPrompt, null);
+    }
+
+    /**
+     * @param brain 所有会话共享的大脑
+     * @param systemPrompt 系统提示词
+     * @param maxRounds 使用咒语的最大轮数（防止陷入无限调用）
+     * @param chatStore 保存清理出内存的会话的对话存储
+     */
+    public SessionManager(Brain brain, String systemPrompt, int maxRounds, IChatStore chatStore){
+        this(new ChatWizard(brain, maxRounds), systemPrompt, chatStore);
+    }
+
+    public SessionManager(IChatWizard chatWizard, String systemPrompt){
+        this(chatWizard, systemPrompt, null);
+    }
+
+    public SessionManager(IChatWizard chatWizard, String systemPrompt, IChatStore chatStore){
+        this.chatWizard = chatWizard;
+        this.chatStore = chatStore;
+        this.memoryBudgetBytes = Anole.getLongProperty("magicgpt.config.session.memory.budget.mb", 0L) * 1024 * 1024;
+        this.systemPrompt = compileSpellPrompt(systemPrompt);
+        logger.info("系统提示词如下: \n{}", this.systemPrompt);
+        this.executor = createExecutor();
+        this.idleTimeoutMillis = TimeUnit.MINUTES.toMillis(Anole.getLongProperty("magicgpt.config.session.idle.timeout.minutes", 30L));
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "magicgpt-session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long sweepMillis = Math.max(1000L, idleTimeoutMillis / 10);
+        this.sweeper.scheduleWithFixedDelay(this::evictIdleSessions, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 获取会话，不在内存中时从对话存储加载，都不存在时创建
+     */
+    public MagicSession getSession(String sessionId){
+        return sessions.computeIfAbsent(sessionId, id -> {
+            MagicChat magicChat = chatStore == null ? null : chatStore.load(id);
+            if (magicChat == null) {
+                magicChat = new MagicChat();
+                magicChat.appendSystemMessage(systemPrompt);
+            }
+            return new MagicSession(id, magicChat, chatWizard);
+        });
+    }
+
+    /**
+     * @return 会话不存在时返回null
+     */
+    public MagicSession findSession(String sessionId){
+        return sessions.get(sessionId);
+    }
+
+    public int getSessionCount(){
+        return sessions.size();
+    }
+
+    /**
+     * 关闭会话并删除其保存的对话，等待中的回合会以异常结束，正在执行的回合不受影响
+     */
+    public void closeSession(String sessionId){
+        MagicSession session = sessions.remove(sessionId);
+        if (session != null) {
+            for (MagicSession.Turn turn : session.close()) {
+                turn.getResult().completeExceptionally(new IllegalStateException("会话" + sessionId + "已关闭"));
+            }
+        }
+        if (chatStore != null) {
+            chatStore.remove(sessionId);
+        }
+    }
+
+    /**
+     * 清空会话的上下文，仅保留系统提示词。
+     * 清空作为控制回合进入会话的信箱，在正在执行的回合结束后进行，不会与AI的回答同时修改对话；之后投递的消息在清空后处理。
+     * @return 清空完成时完成
+     */
+    public CompletableFuture<Void> clearContext(String sessionId){
+        if (chatStore == null && sessions.get(sessionId) == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return submit(sessionId, MagicSession.Turn.control(MagicChat::clearConversation)).thenApply(ignored -> null);
+    }
+
+    /**
+     * 在会话中推进对话，AI的回答流式写入输出流。
+     * 会话正忙时消息进入信箱，与忙碌期间到达的其他消息合并后执行，回答同时写入这些消息的输出流。
+     * @return 完成时为AI最后一轮的回答
+     */
+    public CompletableFuture<String> proceedWithStream(String sessionId, String userMessage, OutputStream outputStream){
+        return submit(sessionId, new MagicSession.Turn(userMessage, outputStream));
+    }
+
+    /**
+     * 在会话中推进对话，以非流式方式获取AI的回答。会话正忙时消息进入信箱，与其他消息合并后执行。
+     */
+    public CompletableFuture<String> proceed(String sessionId, String userMessage){
+        return submit(sessionId, new MagicSession.Turn(userMessage, null));
+    }
+
+    /**
+     * 停止清理任务和线程池，正在执行的回合会执行完；指定了对话存储时，保存所有空闲会话的对话并关闭存储
+     */
+    public void shutdown(){
+        sweeper.shutdownNow();
+        executor.shutdown();
+        if (chatStore != null) {
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(Anole.getLongProperty("magicgpt.config.session.shutdown.timeout.seconds", 30L));
+            try {
+                executor.awaitTermination(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                // 回合在魔法师的异步接口中执行，线程池结束后可能仍有进行中的回合
+                while (hasBusySession() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(100L);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            evictSessions(Long.MAX_VALUE, sessions.size());
+            chatStore.close();
+        }
+    }
+
+    private CompletableFuture<String> submit(String sessionId, MagicSession.Turn turn){
+        while (true) {
+            MagicSession session = getSession(sessionId);
+            MagicSession.OfferResult offerResult = session.offer(turn);
+            if (offerResult == MagicSession.OfferResult.CLOSED) {
+                // 会话恰好被清理，从映射中移除后重新获取
+                sessions.remove(sessionId, session);
+                continue;
+            }
+            if (offerResult == MagicSession.OfferResult.SCHEDULE) {
+                schedule(session);
+            }
+            return turn.getResult();
+        }
+    }
+
+    private void schedule(MagicSession session){
+        try {
+            executor.execute(() -> runNextBatch(session));
+        } catch (RejectedExecutionException e) {
+            logger.warn("会话{}的回合无法调度，线程池已满。", session.getSessionId());
+            for (MagicSession.Turn turn : session.drain()) {
+                turn.getResult().completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 发起会话中积累的消息，回合结束时又有消息到达则重新排队，让其他会话有机会执行
+     */
+    private void runNextBatch(MagicSession session){
+        session.runNextBatchAsync().thenAccept(hasMore -> {
+            if (hasMore) {
+                schedule(session);
+            }
+        });
+    }
+
+    private boolean hasBusySession(){
+        for (MagicSession session : sessions.values()) {
+            if (session.isBusy()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void evictIdleSessions(){
+        try {
+            evictSessions(System.currentTimeMillis() - idleTimeoutMillis, sessions.size());
+            if (chatStore != null && memoryBudgetBytes > 0) {
+                evictOverBudget();
+            }
+        } catch (Throwable e) {
+            // 异常不能抛出，否则定时任务会停止
+            logger.error("清理会话失败。", e);
+        }
+    }
+
+    /**
+     * 内存中的对话超出预算时，按最久未访问的顺序将空闲会话清理出内存。
+     * 使用各会话在回合结束时统计的估算值，不在清理线程上遍历可能正被修改的对话。
+     */
+    private void evictOverBudget(){
+        long totalBytes = 0;
+        List<MagicSession> candidates = new ArrayList<>(sessions.values());
+        for (MagicSession session : candidates) {
+            totalBytes += session.getEstimatedBytes();
+        }
+        if (totalBytes <= memoryBudgetBytes) {
+            return;
+        }
+        candidates.sort(Comparator.comparingLong(MagicSession::getLastAccessTime));
+        for (MagicSession session : candidates) {
+            if (totalBytes <= memoryBudgetBytes) {
+                break;
+            }
+            long bytes = session.getEstimatedBytes();
+            if (evict(session, Long.MAX_VALUE)) {
+                totalBytes -= bytes;
+            }
+        }
+    }
+
+    /**
+     * 清理最后活动时间早于deadline的空闲会话
+     */
+    private void evictSessions(long deadline, int limit){
+        int evicted = 0;
+        for (MagicSession session : new ArrayList<>(sessions.values())) {
+            if (evicted >= limit) {
+                return;
+            }
+            if (evict(session, deadline)) {
+                evicted++;
+            }
+        }
+    }
+
+    /**
+     * 将空闲会话清理出内存，指定了对话存储时先保存。保存和移除在映射的同一把锁下完成，
+     * 同一会话的并发加载只会看到保存之后的内容。
+     * @return 清理成功返回true
+     */
+    private boolean evict(MagicSession session, long deadline){
+        boolean[] evicted = {false};
+        sessions.computeIfPresent(session.getSessionId(), (id, current) -> {
+            if (current != session || !session.closeIfIdleSince(deadline, chat -> persist(id, chat))) {
+                return current;
+            }
+            evicted[0] = true;
+            return null;
+        });
+        if (evicted[0]) {
+            logger.debug("会话{}已清理出内存。", session.getSessionId());
+        }
+        return evicted[0];
+    }
+
+    private void persist(String sessionId, MagicChat chat){
+        if (chatStore != null) {
+            chatStore.save(sessionId, chat);
+        }
+    }
+
+    private static ExecutorService createExecutor(){
+        int maxSize = Anole.getIntProperty("magicgpt.config.session.threads.maxSize", 64);
+        int queueSize = Anole.getIntProperty("magicgpt.config.session.threads.queueSize", 10000);
+        long keepAliveSeconds = Anole.getLongProperty("magicgpt.config.session.threads.keepAliveTime.second", 60L);
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
+                maxSize,
+                maxSize,
+                keepAliveSeconds,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "magicgpt-session-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        threadPool.allowCoreThreadTimeOut(true);
+        return threadPool;
+    }
+
+}
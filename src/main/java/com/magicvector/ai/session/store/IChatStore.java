@@ -0,0 +1,36 @@
+package com.magicvector.ai.session.store;
+
+import com.magicvector.ai.wizards.model.MagicChat;
+
+/**
+ * 对话存储：会话从内存中清理时保存其对话，下次访问时再加载回内存。
+ * 实现需要是线程安全的。
+ */
+public interface IChatStore {
+
+    /**
+     * 加载会话的对话
+     * @param sessionId 会话标识
+     * @return 没有保存过时返回null
+     */
+    MagicChat load(String sessionId);
+
+    /**
+     * 保存会话的对话，覆盖之前保存的内容
+     * @param sessionId 会话标识
+     * @param chat 对话
+     */
+    void save(String sessionId, MagicChat chat);
+
+    /**
+     * 删除会话的对话
+     * @param sessionId 会话标识
+     */
+    void remove(String sessionId);
+
+    /**
+     * 释放存储占用的资源
+     */
+    void close();
+
+}
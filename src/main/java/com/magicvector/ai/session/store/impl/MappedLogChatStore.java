@@ -0,0 +1,435 @@
+package com.magicvector.ai.session.store.impl;
+
+import com.github.tbwork.anole.loader.Anole;
+import com.magicvector.ai.exceptions.MagicGPTGeneralException;
+import com.magicvector.ai.session.store.IChatStore;
+import com.magicvector.ai.wizards.model.MagicChat;
+import com.magicvector.ai.wizards.model.MagicMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 基于本地磁盘上只追加、内存映射的日志文件的对话存储。
+ * <p>
+ * 每次保存或删除追加一条记录，内存中只保留会话标识到最新记录位置的索引。
+ * 记录格式：魔数(4) 类型(1) 标识长度(4) 内容长度(4) CRC32(4) 标识 内容。
+ * 启动时顺序扫描日志重建索引，遇到魔数或校验不符的记录即认为是未写完的尾部并从此处继续写入。
+ * 失效记录占比超过阈值时，将有效记录重写到新文件，解除旧文件的内存映射后原子替换旧文件。
+ * 消息的tokens数不随记录恢复，加载后按当前配置的分词器重新统计。
+ * </p>
+ * 写入进入操作系统的页缓存，进程崩溃不会丢失数据；如需抵御操作系统崩溃，可开启每次写入后强制刷盘。
+ */
+public class MappedLogChatStore implements IChatStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedLogChatStore.class);
+
+    private static final String LOG_FILE = "chats.log";
+
+    private static final String COMPACT_FILE = "chats.log.compact";
+
+    private static final int MAGIC = 0x4D474331;
+
+    private static final byte PUT = 1;
+
+    private static final byte DELETE = 2;
+
+    private static final int HEADER_SIZE = 4 + 1 + 4 + 4 + 4;
+
+    private static final int INITIAL_CAPACITY = 16 * 1024 * 1024;
+
+    /**
+     * 失效记录少于该值时不压缩
+     */
+    private static final long COMPACT_MIN_GARBAGE = 4 * 1024 * 1024;
+
+    private final File directory;
+
+    private final boolean syncOnWrite;
+
+    private final double compactGarbageRatio;
+
+    /**
+     * 会话标识 -> 最新记录的位置，受this保护
+     */
+    private final Map<String, Location> index = new HashMap<>();
+
+    private FileChannel channel;
+
+    private MappedByteBuffer buffer;
+
+    private int writePosition;
+
+    /**
+     * 索引中有效记录的总字节数
+     */
+    private long liveBytes;
+
+    public MappedLogChatStore(){
+        this(new File(Anole.getProperty("magicgpt.config.session.store.dir", System.getProperty("java.io.tmpdir") + File.separator + "magicgpt-chats")));
+    }
+
+    public MappedLogChatStore(File directory){
+        this.directory = directory;
+        this.syncOnWrite = Anole.getBoolProperty("magicgpt.config.session.store.syncOnWrite", false);
+        this.compactGarbageRatio = Anole.getDoubleProperty("magicgpt.config.session.store.compact.garbageRatio", 0.5D);
+        try {
+            Files.createDirectories(directory.toPath());
+            Files.deleteIfExists(new File(directory, COMPACT_FILE).toPath());
+            open(new File(directory, LOG_FILE));
+            recover();
+        } catch (IOException e) {
+            throw new MagicGPTGeneralException("Fail to open chat store at " + directory + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized MagicChat load(String sessionId) {
+        Location location = index.get(sessionId);
+        if (location == null) {
+            return null;
+        }
+        byte[] payload = new byte[location.payloadLength];
+        ByteBuffer view = buffer.duplicate();
+        view.position(location.offset + HEADER_SIZE + location.keyLength);
+        view.get(payload);
+        try {
+            return decode(payload);
+        } catch (IOException e) {
+            throw new MagicGPTGeneralException("Fail to read chat of session " + sessionId + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void save(String sessionId, MagicChat chat) {
+        try {
+            append(PUT, sessionId, encode(chat));
+        } catch (IOException e) {
+            throw new MagicGPTGeneralException("Fail to save chat of session " + sessionId + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void remove(String sessionId) {
+        if (!index.containsKey(sessionId)) {
+            return;
+        }
+        try {
+            append(DELETE, sessionId, new byte[0]);
+        } catch (IOException e) {
+            throw new MagicGPTGeneralException("Fail to remove chat of session " + sessionId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return 存储中的会话数
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Fail to close chat store. Details: {}", e.getMessage());
+        }
+        unmap(buffer);
+        buffer = null;
+    }
+
+    private void append(byte type, String sessionId, byte[] payload) throws IOException {
+        byte[] key = sessionId.getBytes(StandardCharsets.UTF_8);
+        int recordLength = HEADER_SIZE + key.length + payload.length;
+        ensureCapacity(recordLength);
+
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        crc.update(payload);
+        int offset = writePosition;
+        buffer.position(offset);
+        buffer.putInt(MAGIC);
+        buffer.put(type);
+        buffer.putInt(key.length);
+        buffer.putInt(payload.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(key);
+        buffer.put(payload);
+        writePosition = offset + recordLength;
+        if (syncOnWrite) {
+            buffer.force();
+        }
+
+        apply(type, sessionId, new Location(offset, key.length, payload.length));
+        compactIfNecessary();
+    }
+
+    private void apply(byte type, String sessionId, Location location) {
+        Location previous = type == PUT ? index.put(sessionId, location) : index.remove(sessionId);
+        if (previous != null) {
+            liveBytes -= previous.getRecordLength();
+        }
+        if (type == PUT) {
+            liveBytes += location.getRecordLength();
+        }
+    }
+
+    private void ensureCapacity(int recordLength) throws IOException {
+        long required = (long) writePosition + recordLength;
+        if (required <= buffer.capacity()) {
+            return;
+        }
+        if (required > Integer.MAX_VALUE) {
+            compact();
+            if ((long) writePosition + recordLength > Integer.MAX_VALUE) {
+                throw new MagicGPTGeneralException("Chat store is full, live data exceeds 2GB.");
+            }
+        }
+        long capacity = Math.min(Integer.MAX_VALUE, Math.max((long) buffer.capacity() << 1, (long) writePosition + recordLength));
+        buffer.force();
+        MappedByteBuffer previous = buffer;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        unmap(previous);
+    }
+
+    private void compactIfNecessary() throws IOException {
+        long garbage = writePosition - liveBytes;
+        if (garbage >= COMPACT_MIN_GARBAGE && garbage >= writePosition * compactGarbageRatio) {
+            compact();
+        }
+    }
+
+    /**
+     * 将有效记录重写到新文件，并原子地替换旧的日志文件。
+     * 替换前先解除两个文件的内存映射，有的平台（如Windows）不允许替换仍被映射的文件
+     */
+    private void compact() throws IOException {
+        long start = System.currentTimeMillis();
+        File compactFile = new File(directory, COMPACT_FILE);
+        Map<String, Location> compacted = new HashMap<>();
+        try (FileChannel target = FileChannel.open(compactFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer targetBuffer = target.map(FileChannel.MapMode.READ_WRITE, 0,
+                    Math.min(Integer.MAX_VALUE, Math.max(INITIAL_CAPACITY, liveBytes << 1)));
+            for (Map.Entry<String, Location> entry : index.entrySet()) {
+                Location location = entry.getValue();
+                ByteBuffer record = buffer.duplicate();
+                record.position(location.offset);
+                record.limit(location.offset + location.getRecordLength());
+                compacted.put(entry.getKey(), new Location(targetBuffer.position(), location.keyLength, location.payloadLength));
+                targetBuffer.put(record);
+            }
+            targetBuffer.force();
+            unmap(targetBuffer);
+        }
+        MappedByteBuffer previous = buffer;
+        buffer = null;
+        channel.close();
+        unmap(previous);
+        Files.move(compactFile.toPath(), new File(directory, LOG_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open(new File(directory, LOG_FILE));
+
+        int previousSize = writePosition;
+        index.clear();
+        index.putAll(compacted);
+        writePosition = (int) liveBytes;
+        logger.info("对话存储压缩完成，{}字节 -> {}字节，耗时{}ms", previousSize, writePosition, System.currentTimeMillis() - start);
+    }
+
+    private void open(File logFile) throws IOException {
+        channel = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(INITIAL_CAPACITY, Math.min(channel.size(), Integer.MAX_VALUE));
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * 顺序扫描日志重建索引，从最后一条完整的记录之后继续写入
+     */
+    private void recover() {
+        long start = System.currentTimeMillis();
+        int position = 0;
+        int limit = buffer.capacity();
+        ByteBuffer view = buffer.duplicate();
+        while (position + HEADER_SIZE <= limit) {
+            view.position(position);
+            if (view.getInt() != MAGIC) {
+                break;
+            }
+            byte type = view.get();
+            int keyLength = view.getInt();
+            int payloadLength = view.getInt();
+            int checksum = view.getInt();
+            if ((type != PUT && type != DELETE) || keyLength < 0 || payloadLength < 0
+                    || (long) position + HEADER_SIZE + keyLength + payloadLength > limit) {
+                break;
+            }
+            byte[] key = new byte[keyLength];
+            byte[] payload = new byte[payloadLength];
+            view.get(key);
+            view.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(key);
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            apply(type, new String(key, StandardCharsets.UTF_8), new Location(position, keyLength, payloadLength));
+            position += HEADER_SIZE + keyLength + payloadLength;
+        }
+        writePosition = position;
+        // 清除未写完的尾部，避免其残留内容在下次恢复时被误读。记录头中本身就有0字节（如长度的高位），
+        // 因此按记录头声明的长度清除整条记录，再清除其后连续的非0字节
+        int tornEnd = tornRecordEnd(view, position, limit);
+        for (int i = position; i < tornEnd; i++) {
+            buffer.put(i, (byte) 0);
+        }
+        for (int i = tornEnd; i < limit && buffer.get(i) != 0; i++) {
+            buffer.put(i, (byte) 0);
+        }
+        logger.info("对话存储恢复完成，共{}个会话，耗时{}ms", index.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * @return 从position开始的未完成记录按其记录头声明的结束位置，不超过limit；记录头不完整或无效时只包含记录头
+     */
+    private static int tornRecordEnd(ByteBuffer view, int position, int limit) {
+        if (position + HEADER_SIZE > limit) {
+            return limit;
+        }
+        view.position(position + 5);
+        int keyLength = view.getInt();
+        int payloadLength = view.getInt();
+        long end = (long) position + HEADER_SIZE;
+        if (keyLength > 0) {
+            end += keyLength;
+        }
+        if (payloadLength > 0) {
+            end += payloadLength;
+        }
+        return (int) Math.min(end, limit);
+    }
+
+    private static byte[] encode(MagicChat chat) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(chat.getChatContent().size());
+        for (MagicMessage message : chat.getChatContent()) {
+            writeString(output, message.getRole());
+            writeString(output, message.getContent());
+            // 保留tokens数的位置以兼容已有的日志，不再写入：tokens数取决于分词器，配置变化后保存的值会失效
+            output.writeInt(-1);
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private static MagicChat decode(byte[] payload) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+        MagicChat chat = new MagicChat();
+        int count = input.readInt();
+        for (int i = 0; i < count; i++) {
+            MagicMessage message = new MagicMessage();
+            message.setRole(readString(input));
+            message.setContent(readString(input));
+            // 忽略保存的tokens数，首次读取时按当前的分词器重新统计
+            input.readInt();
+            chat.appendMessage(message);
+        }
+        return chat;
+    }
+
+    /**
+     * 立即解除内存映射，不等待缓冲区被回收。调用后不能再访问该缓冲区及其副本，否则会使JVM崩溃。
+     * 不支持时只记录日志，映射在缓冲区被回收时解除
+     */
+    private static void unmap(MappedByteBuffer mappedBuffer) {
+        if (mappedBuffer == null) {
+            return;
+        }
+        try {
+            // Java 9及以上
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), mappedBuffer);
+            return;
+        } catch (NoSuchMethodException e) {
+            // Java 8，使用下面的方式
+        } catch (Exception e) {
+            logger.debug("Fail to unmap chat store buffer. Details: {}", e.getMessage());
+            return;
+        }
+        try {
+            Method cleanerMethod = mappedBuffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(mappedBuffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            logger.debug("Fail to unmap chat store buffer. Details: {}", e.getMessage());
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    private static class Location {
+
+        private final int offset;
+
+        private final int keyLength;
+
+        private final int payloadLength;
+
+        private Location(int offset, int keyLength, int payloadLength){
+            this.offset = offset;
+            this.keyLength = keyLength;
+            this.payloadLength = payloadLength;
+        }
+
+        private int getRecordLength(){
+            return HEADER_SIZE + keyLength + payloadLength;
+        }
+    }
+
+}
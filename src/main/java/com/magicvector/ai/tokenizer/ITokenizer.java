@@ -0,0 +1,16 @@
+package com.magicvector.ai.tokenizer;
+
+/**
+ * 分词器，用于估算文本发送给大模型时占用的tokens数量。
+ * 实现需要是线程安全的。
+ */
+public interface ITokenizer {
+
+    /**
+     * 统计文本的tokens数量
+     * @param text 文本，为空时返回0
+     * @return tokens数量
+     */
+    int countTokens(CharSequence text);
+
+}
@@ -0,0 +1,57 @@
+package com.magicvector.ai.tokenizer;
+
+import com.github.tbwork.anole.loader.Anole;
+import com.magicvector.ai.tokenizer.impl.BpeTokenizer;
+import com.magicvector.ai.tokenizer.impl.BpeVocabulary;
+import com.magicvector.ai.tokenizer.impl.HeuristicTokenizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+
+/**
+ * 默认分词器的工厂。
+ * 类路径上存在配置的BPE词表（tiktoken格式，每行为"base64编码的token 序号"）时使用BPE分词器，
+ * 否则回退到按字符类别估算的分词器。
+ * 词表文件较大（cl100k_base约1.7MB），不随本项目发布，需要精确计数时将tiktoken发布的cl100k_base.tiktoken放到类路径上的配置位置。
+ */
+public class TokenizerFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenizerFactory.class);
+
+    private static volatile ITokenizer instance;
+
+    public static ITokenizer getInstance(){
+        if(instance == null){
+            synchronized (TokenizerFactory.class){
+                if(instance == null){
+                    instance = createTokenizer();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 替换默认分词器，例如使用与所用模型匹配的词表
+     */
+    public static void setInstance(ITokenizer tokenizer){
+        instance = tokenizer;
+    }
+
+    private static ITokenizer createTokenizer(){
+        String vocabResource = Anole.getProperty("magicgpt.config.tokenizer.vocab", "tokenizer/cl100k_base.tiktoken");
+        try (InputStream inputStream = TokenizerFactory.class.getClassLoader().getResourceAsStream(vocabResource)) {
+            if (inputStream != null) {
+                BpeVocabulary vocabulary = BpeVocabulary.load(inputStream);
+                logger.info("已加载BPE词表{}，共{}个token", vocabResource, vocabulary.size());
+                return new BpeTokenizer(vocabulary);
+            }
+            logger.info("类路径上没有BPE词表{}，使用估算的分词器。", vocabResource);
+        } catch (Exception e) {
+            logger.warn("Fail to load BPE vocabulary {}, fall back to the heuristic tokenizer. Details: {}", vocabResource, e.getMessage());
+        }
+        return new HeuristicTokenizer();
+    }
+
+}
@@ -0,0 +1,281 @@
+package com.magicvector.ai.tokenizer.impl;
+
+import com.magicvector.ai.tokenizer.ITokenizer;
+
+/**
+ * 字节级BPE分词器，与tiktoken的cl100k_base分词结果一致（使用o200k_base等词表时仅预切分规则不同，计数会有少量偏差）。
+ * <p>
+ * 先按cl100k的正则规则把文本预切分为片段，再对每个片段的UTF-8字节按合并序号做BPE合并。
+ * 预切分由手写的扫描器完成，字节和合并状态保存在线程本地的可复用数组中，计数过程不分配对象。
+ * </p>
+ * 线程安全。
+ */
+public class BpeTokenizer implements ITokenizer {
+
+    private final BpeVocabulary vocabulary;
+
+    private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(Workspace::new);
+
+    public BpeTokenizer(BpeVocabulary vocabulary){
+        this.vocabulary = vocabulary;
+    }
+
+    @Override
+    public int countTokens(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        Workspace workspace = workspaces.get();
+        int count = 0;
+        int position = 0;
+        int length = text.length();
+        while (position < length) {
+            int end = nextPiece(text, position, length);
+            count += countPiece(text, position, end, workspace);
+            position = end;
+        }
+        return count;
+    }
+
+    /**
+     * 统计一个预切分片段的tokens数量
+     */
+    private int countPiece(CharSequence text, int from, int to, Workspace workspace) {
+        int byteLength = workspace.encode(text, from, to);
+        byte[] bytes = workspace.bytes;
+        if (byteLength == 1 || vocabulary.rank(bytes, 0, byteLength) >= 0) {
+            return 1;
+        }
+        // bounds[i]为第i个部分的起始字节，pairRanks[i]为第i和i+1部分合并后的序号
+        int[] bounds = workspace.bounds(byteLength + 1);
+        int[] pairRanks = workspace.pairRanks(byteLength);
+        int parts = byteLength;
+        for (int i = 0; i <= byteLength; i++) {
+            bounds[i] = i;
+        }
+        for (int i = 0; i < parts - 1; i++) {
+            pairRanks[i] = rankOrMax(bytes, bounds[i], bounds[i + 2]);
+        }
+        while (parts > 1) {
+            int minRank = Integer.MAX_VALUE;
+            int minIndex = -1;
+            for (int i = 0; i < parts - 1; i++) {
+                if (pairRanks[i] < minRank) {
+                    minRank = pairRanks[i];
+                    minIndex = i;
+                }
+            }
+            if (minIndex < 0) {
+                break;
+            }
+            // 合并第minIndex和minIndex+1部分
+            System.arraycopy(bounds, minIndex + 2, bounds, minIndex + 1, parts - minIndex - 1);
+            System.arraycopy(pairRanks, minIndex + 1, pairRanks, minIndex, parts - minIndex - 2);
+            parts--;
+            if (minIndex < parts - 1) {
+                pairRanks[minIndex] = rankOrMax(bytes, bounds[minIndex], bounds[minIndex + 2]);
+            }
+            if (minIndex > 0) {
+                pairRanks[minIndex - 1] = rankOrMax(bytes, bounds[minIndex - 1], bounds[minIndex + 1]);
+            }
+        }
+        return parts;
+    }
+
+    private int rankOrMax(byte[] bytes, int from, int to) {
+        int rank = vocabulary.rank(bytes, from, to);
+        return rank < 0 ? Integer.MAX_VALUE : rank;
+    }
+
+    /**
+     * 按cl100k_base的预切分规则找到从from开始的片段的结束位置，规则依次为：
+     * <pre>
+     * (?i:'s|'t|'re|'ve|'m|'ll|'d) | [^\r\n\p{L}\p{N}]?\p{L}+ | \p{N}{1,3} | ?[^\s\p{L}\p{N}]+[\r\n]* | \s*[\r\n]+ | \s+(?!\S) | \s+
+     * </pre>
+     */
+    static int nextPiece(CharSequence text, int from, int length) {
+        int c = Character.codePointAt(text, from);
+        int next = from + Character.charCount(c);
+
+        // 英文缩写
+        if (c == '\'' && next < length) {
+            int c1 = Character.toLowerCase(text.charAt(next));
+            if (c1 == 's' || c1 == 't' || c1 == 'm' || c1 == 'd') {
+                return next + 1;
+            }
+            if (next + 1 < length) {
+                int c2 = Character.toLowerCase(text.charAt(next + 1));
+                if ((c1 == 'r' && c2 == 'e') || (c1 == 'v' && c2 == 'e') || (c1 == 'l' && c2 == 'l')) {
+                    return next + 2;
+                }
+            }
+        }
+
+        // 字母，可以带一个前导的非字母数字字符
+        if (isLetter(c)) {
+            return skipLetters(text, next, length);
+        }
+        if (c != '\r' && c != '\n' && !isNumber(c) && next < length && isLetter(Character.codePointAt(text, next))) {
+            return skipLetters(text, next, length);
+        }
+
+        // 最多3位数字
+        if (isNumber(c)) {
+            int end = next;
+            for (int i = 1; i < 3 && end < length; i++) {
+                int d = Character.codePointAt(text, end);
+                if (!isNumber(d)) {
+                    break;
+                }
+                end += Character.charCount(d);
+            }
+            return end;
+        }
+
+        // 标点符号等，可以带一个前导空格，以及尾随的换行
+        int punctuationStart = -1;
+        if (!isWhitespace(c)) {
+            punctuationStart = from;
+        } else if (c == ' ' && next < length && isPunctuation(Character.codePointAt(text, next))) {
+            punctuationStart = next;
+        }
+        if (punctuationStart >= 0) {
+            int end = punctuationStart;
+            while (end < length) {
+                int p = Character.codePointAt(text, end);
+                if (!isPunctuation(p)) {
+                    break;
+                }
+                end += Character.charCount(p);
+            }
+            while (end < length && (text.charAt(end) == '\r' || text.charAt(end) == '\n')) {
+                end++;
+            }
+            return end;
+        }
+
+        // 空白
+        int whitespaceEnd = next;
+        int lastNewline = (c == '\r' || c == '\n') ? from : -1;
+        while (whitespaceEnd < length) {
+            int w = Character.codePointAt(text, whitespaceEnd);
+            if (!isWhitespace(w)) {
+                break;
+            }
+            if (w == '\r' || w == '\n') {
+                lastNewline = whitespaceEnd;
+            }
+            whitespaceEnd += Character.charCount(w);
+        }
+        if (lastNewline >= 0) {
+            return lastNewline + 1;
+        }
+        if (whitespaceEnd == length) {
+            return whitespaceEnd;
+        }
+        // 留下最后一个空白字符与后面的单词组成片段
+        int lastWhitespace = whitespaceEnd - Character.charCount(Character.codePointBefore(text, whitespaceEnd));
+        return lastWhitespace > from ? lastWhitespace : whitespaceEnd;
+    }
+
+    private static int skipLetters(CharSequence text, int from, int length) {
+        int end = from;
+        while (end < length) {
+            int l = Character.codePointAt(text, end);
+            if (!isLetter(l)) {
+                break;
+            }
+            end += Character.charCount(l);
+        }
+        return end;
+    }
+
+    private static boolean isLetter(int c) {
+        return Character.isLetter(c);
+    }
+
+    private static boolean isNumber(int c) {
+        int type = Character.getType(c);
+        return type == Character.DECIMAL_DIGIT_NUMBER || type == Character.LETTER_NUMBER || type == Character.OTHER_NUMBER;
+    }
+
+    /**
+     * Unicode的White_Space字符，与正则中的\s一致。
+     * Character.isWhitespace包含U+001C~U+001F而不包含U+0085，不能直接使用
+     */
+    private static boolean isWhitespace(int c) {
+        if (c <= 0x20) {
+            return c == ' ' || (c >= 0x09 && c <= 0x0D);
+        }
+        return c == 0x85 || Character.isSpaceChar(c);
+    }
+
+    private static boolean isPunctuation(int c) {
+        return !isWhitespace(c) && !isLetter(c) && !isNumber(c);
+    }
+
+
+    /**
+     * 线程本地的可复用缓冲区
+     */
+    private static class Workspace {
+
+        private byte[] bytes = new byte[256];
+
+        private int[] bounds = new int[257];
+
+        private int[] pairRanks = new int[256];
+
+        /**
+         * 将文本区间编码为UTF-8字节
+         * @return 字节数
+         */
+        private int encode(CharSequence text, int from, int to) {
+            int maxLength = (to - from) * 3;
+            if (bytes.length < maxLength) {
+                bytes = new byte[Math.max(maxLength, bytes.length << 1)];
+            }
+            int length = 0;
+            for (int i = from; i < to; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    bytes[length++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[length++] = (byte) (0xC0 | (c >> 6));
+                    bytes[length++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    bytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+                    bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    // 不成对的代理字符按替换字符U+FFFD编码
+                    bytes[length++] = (byte) 0xEF;
+                    bytes[length++] = (byte) 0xBF;
+                    bytes[length++] = (byte) 0xBD;
+                } else {
+                    bytes[length++] = (byte) (0xE0 | (c >> 12));
+                    bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    bytes[length++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return length;
+        }
+
+        private int[] bounds(int size) {
+            if (bounds.length < size) {
+                bounds = new int[Math.max(size, bounds.length << 1)];
+            }
+            return bounds;
+        }
+
+        private int[] pairRanks(int size) {
+            if (pairRanks.length < size) {
+                pairRanks = new int[Math.max(size, pairRanks.length << 1)];
+            }
+            return pairRanks;
+        }
+    }
+
+}
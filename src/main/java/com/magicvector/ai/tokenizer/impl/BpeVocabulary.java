@@ -0,0 +1,141 @@
+package com.magicvector.ai.tokenizer.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * BPE词表：token字节序列到合并序号的映射。
+ * <p>
+ * 所有token的字节连续存放在一个数组中，使用开放寻址的哈希表按字节区间查找，
+ * 查找时直接比较调用方数组中的区间，不需要为每次查找创建键对象。
+ * </p>
+ * 加载后不可变，线程安全。
+ */
+public class BpeVocabulary {
+
+    private static final int FNV_OFFSET = 0x811C9DC5;
+
+    private static final int FNV_PRIME = 0x01000193;
+
+    /**
+     * 所有token的字节
+     */
+    private final byte[] pool;
+
+    private final int[] offsets;
+
+    private final int[] lengths;
+
+    private final int[] ranks;
+
+    /**
+     * 哈希槽，存放token下标+1，0表示空槽
+     */
+    private final int[] slots;
+
+    private final int mask;
+
+    private final int size;
+
+    private BpeVocabulary(byte[] pool, int[] offsets, int[] lengths, int[] ranks, int size){
+        this.size = size;
+        this.pool = pool;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.ranks = ranks;
+        int capacity = Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1;
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = hash(pool, offsets[i], offsets[i] + lengths[i]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    /**
+     * 加载tiktoken格式的词表：每行为"base64编码的token 序号"
+     */
+    public static BpeVocabulary load(InputStream inputStream) throws IOException {
+        byte[] pool = new byte[1 << 20];
+        int poolSize = 0;
+        int[] offsets = new int[1 << 16];
+        int[] lengths = new int[1 << 16];
+        int[] ranks = new int[1 << 16];
+        int size = 0;
+        Base64.Decoder decoder = Base64.getDecoder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.US_ASCII));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int separator = line.indexOf(' ');
+            if (separator <= 0) {
+                continue;
+            }
+            byte[] token = decoder.decode(line.substring(0, separator));
+            int rank = Integer.parseInt(line.substring(separator + 1).trim());
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size << 1);
+                lengths = Arrays.copyOf(lengths, size << 1);
+                ranks = Arrays.copyOf(ranks, size << 1);
+            }
+            if (poolSize + token.length > pool.length) {
+                pool = Arrays.copyOf(pool, Math.max(pool.length << 1, poolSize + token.length));
+            }
+            System.arraycopy(token, 0, pool, poolSize, token.length);
+            offsets[size] = poolSize;
+            lengths[size] = token.length;
+            ranks[size] = rank;
+            poolSize += token.length;
+            size++;
+        }
+        return new BpeVocabulary(Arrays.copyOf(pool, poolSize), Arrays.copyOf(offsets, size),
+                Arrays.copyOf(lengths, size), Arrays.copyOf(ranks, size), size);
+    }
+
+    /**
+     * 查找字节区间对应的合并序号
+     * @return 不在词表中时返回-1
+     */
+    public int rank(byte[] bytes, int from, int to) {
+        int length = to - from;
+        int slot = hash(bytes, from, to) & mask;
+        int index;
+        while ((index = slots[slot]) != 0) {
+            index--;
+            if (lengths[index] == length && regionEquals(bytes, from, offsets[index], length)) {
+                return ranks[index];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private boolean regionEquals(byte[] bytes, int from, int poolOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[from + i] != pool[poolOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        int hash = FNV_OFFSET;
+        for (int i = from; i < to; i++) {
+            hash = (hash ^ (bytes[i] & 0xFF)) * FNV_PRIME;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.magicvector.ai.tokenizer.impl;
+
+import com.magicvector.ai.tokenizer.ITokenizer;
+
+/**
+ * 按字符类别估算tokens：每个汉字、标点或空白为一个token，连续的英文字母和数字每5个为一个token。
+ * 与MessageUtil.getTokens的切分结果数量一致，但只计数，不产生任何对象。
+ */
+public class HeuristicTokenizer implements ITokenizer {
+
+    private static final int MAX_ENGLISH_TOKEN_LENGTH = 5;
+
+    @Override
+    public int countTokens(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int count = 0;
+        int run = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (isEnglishOrNumberChar(c)) {
+                if (run >= MAX_ENGLISH_TOKEN_LENGTH) {
+                    count++;
+                    run = 0;
+                }
+                run++;
+            } else {
+                if (run > 0) {
+                    count++;
+                    run = 0;
+                }
+                count++;
+            }
+        }
+        if (run > 0) {
+            count++;
+        }
+        return count;
+    }
+
+    private static boolean isEnglishOrNumberChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+}
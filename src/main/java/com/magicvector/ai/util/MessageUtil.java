@@ -1,9 +1,10 @@
 package com.magicvector.ai.util;
 
-import com.magicvector.ai.exceptions.PromptTokensExceedException;
+import com.magicvector.ai.tokenizer.TokenizerFactory;
 import com.magicvector.ai.wizards.model.MagicChat;
 import com.magicvector.ai.wizards.model.MagicMessage;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -11,7 +12,7 @@ public class MessageUtil {
 
 
     public static int countTokens(String input){
-        return getTokens(input).size();
+        return TokenizerFactory.getInstance().countTokens(input);
     }
     public static List<String> getTokens(String input) {
         List<String> result = new ArrayList<>();
@@ -59,23 +60,15 @@ public class MessageUtil {
 
 
 
+    /**
+     * 对话的tokens超过上限时整轮删除最早的对话，见{@link MagicChat#trimToTokens(int)}
+     */
     public static void optimizeChat(MagicChat magicChat, int maxChatTokenCount) {
-        List<MagicMessage> chatMagicMessages = magicChat.getChatContent();
-        if (chatMagicMessages == null || chatMagicMessages.size() <= 1 || getTotalLength(chatMagicMessages) <= maxChatTokenCount) {
-            // If the message list is empty, contains only one message, or its total length does not exceed the maximum limit, just return directly.
+        if (magicChat.getChatContent() == null) {
             return;
         }
-
         // A dialogue turn represents the conversation between all roles from the user's one utterance to the next one.
-        while(getTotalLength(chatMagicMessages) > maxChatTokenCount){
-            reduceOneTalkRound(chatMagicMessages);
-        }
-
-        int chatTokenCount = getTotalLength(chatMagicMessages);
-        if(chatTokenCount > maxChatTokenCount){
-            throw new PromptTokensExceedException( chatTokenCount, maxChatTokenCount);
-        }
-
+        magicChat.trimToTokens(maxChatTokenCount);
     }
 
 
@@ -101,6 +94,55 @@ public class MessageUtil {
         magicMessageList.subList(s, e + 1).clear();
     }
 
+    /**
+     * 将消息编码为JSON对象{"role":...,"content":...}的UTF-8字节，为null的字段省略
+     */
+    public static byte[] toJsonFragment(String role, String content) {
+        StringBuilder sb = new StringBuilder((content == null ? 0 : content.length()) + 32);
+        sb.append('{');
+        if (role != null) {
+            sb.append("\"role\":");
+            appendJsonString(sb, role);
+        }
+        if (content != null) {
+            if (role != null) {
+                sb.append(',');
+            }
+            sb.append("\"content\":");
+            appendJsonString(sb, content);
+        }
+        sb.append('}');
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 追加JSON字符串字面量
+     */
+    public static void appendJsonString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\b': sb.append("\\b"); break;
+                case '\f': sb.append("\\f"); break;
+                case '\u2028': sb.append("\\u2028"); break;
+                case '\u2029': sb.append("\\u2029"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
     public static int getTotalLength(List<MagicMessage> magicMessageList) {
         // 计算消息列表的总长度
         int totalLength = 0;
@@ -3,19 +3,37 @@ package com.magicvector.ai.util;
 import com.magicvector.ai.core.manager.SpellManager;
 import com.magicvector.ai.exceptions.MagicGPTGeneralException;
 import com.magicvector.ai.model.Arg;
+import com.magicvector.ai.prompts.template.PromptTemplate;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PromptUtil {
 
+    private static final int TEMPLATE_CACHE_SIZE = 256;
+
+    /**
+     * 最近使用的咒语提示词模板的编译结果
+     */
+    private static final Map<String, PromptTemplate> spellTemplateCache = newTemplateCache();
+
+    /**
+     * 最近使用的参数模板的编译结果
+     */
+    private static final Map<String, PromptTemplate> paramTemplateCache = newTemplateCache();
+
+    /**
+     * 已读取的类路径资源，资源在运行期间不会变化
+     */
+    private static final Map<String, String> resourceCache = new ConcurrentHashMap<>();
+
 
     public static String joinPrompt(String[] prompts, String delimiter) {
         if (prompts == null || prompts.length == 0) {
@@ -32,9 +50,14 @@ public class PromptUtil {
 
 
 
+    /**
+     * 读取提示词资源，每行去除首尾空白，读取成功的资源会被缓存
+     */
     public static String parseResource(String promptResourceName) {
-        Map<String, String> promptMap = new HashMap<>();
-        String language = null;
+        String cached = resourceCache.get("parse:" + promptResourceName);
+        if (cached != null) {
+            return cached;
+        }
         StringBuilder promptBuilder = new StringBuilder();
         try (
                 InputStream inputStream = PromptUtil.class.getClassLoader().getResourceAsStream(promptResourceName);
@@ -47,8 +70,11 @@ public class PromptUtil {
             }
         } catch (Exception e) {
             e.printStackTrace();
+            return promptBuilder.toString();
         }
-        return promptBuilder.toString();
+        String prompt = promptBuilder.toString();
+        resourceCache.put("parse:" + promptResourceName, prompt);
+        return prompt;
     }
 
 
@@ -73,7 +99,20 @@ public class PromptUtil {
         return sb.toString();
     }
 
+    /**
+     * 读取类路径资源的内容，读取成功的资源会被缓存
+     */
     public static String readResourceByRelativePath(String relativePath) {
+        String cached = resourceCache.get("read:" + relativePath);
+        if (cached != null) {
+            return cached;
+        }
+        String content = doReadResource(relativePath);
+        resourceCache.put("read:" + relativePath, content);
+        return content;
+    }
+
+    private static String doReadResource(String relativePath) {
         try (InputStream inputStream = PromptUtil.class.getClassLoader().getResourceAsStream(relativePath);
              BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
             if (inputStream == null) {
@@ -92,7 +131,7 @@ public class PromptUtil {
 
 
     /**
-     * 编译字符串中的表达式
+     * 编译字符串中的表达式：#{咒语书名}替换为咒语书的提示词，@{咒语名}替换为咒语的提示词
      *
      * @param input 原始字符串
      * @return 编译后的字符串
@@ -101,54 +140,39 @@ public class PromptUtil {
         if (input == null || input.isEmpty()) {
             return input;
         }
-
-        // 处理1类表达式 #{key}
-        Pattern patternType1 = Pattern.compile("#\\{([^}]+)}");
-        Matcher matcherType1 = patternType1.matcher(input);
-        StringBuffer resultBuffer = new StringBuffer();
-        while (matcherType1.find()) {
-            String key = matcherType1.group(1); // 提取 key
-            String value = getConfigValue(1, key); // 获取1类表达式的值
-            matcherType1.appendReplacement(resultBuffer, value != null ? Matcher.quoteReplacement(value) : "");
-        }
-        matcherType1.appendTail(resultBuffer);
-
-        // 处理2类表达式 ${key}
-        String resultAfterType1 = resultBuffer.toString();
-        Pattern patternType2 = Pattern.compile("@\\{([^}]+)}");
-        Matcher matcherType2 = patternType2.matcher(resultAfterType1);
-        resultBuffer.setLength(0); // 清空StringBuffer
-        while (matcherType2.find()) {
-            String key = matcherType2.group(1); // 提取 key
-            String value = getConfigValue(2, key); // 获取2类表达式的值
-            matcherType2.appendReplacement(resultBuffer, value != null ? Matcher.quoteReplacement(value) : "");
-        }
-        matcherType2.appendTail(resultBuffer);
-
-        return resultBuffer.toString();
+        return getTemplate(spellTemplateCache, input, PromptTemplate.SPELL_BOOK | PromptTemplate.SPELL).render();
     }
 
 
+    /**
+     * 将${key}替换为参数的值，没有对应参数的占位符保留原样
+     */
     public static String compilePrompt(String prompt, Map<String, String> paramMap) {
         if (prompt == null || paramMap == null) {
             return prompt;
         }
+        return getTemplate(paramTemplateCache, prompt, PromptTemplate.PARAM).render(paramMap);
+    }
 
-        // 定义正则表达式，匹配类似于 ${key} 的占位符
-        Pattern pattern = Pattern.compile("\\$\\{(\\w+)}");
-        Matcher matcher = pattern.matcher(prompt);
-
-        // 用于存储替换结果
-        StringBuffer resultBuffer = new StringBuffer();
-
-        while (matcher.find()) {
-            String key = matcher.group(1); // 获取占位符中的键
-            String replacement = paramMap.getOrDefault(key, matcher.group(0)); // 获取替换值或保留原始占位符
-            matcher.appendReplacement(resultBuffer, Matcher.quoteReplacement(replacement));
+    /**
+     * 获取模板的编译结果，最近使用的模板不会重复编译
+     */
+    private static PromptTemplate getTemplate(Map<String, PromptTemplate> cache, String template, int syntaxes) {
+        PromptTemplate compiled = cache.get(template);
+        if (compiled == null) {
+            compiled = PromptTemplate.compile(template, syntaxes);
+            cache.put(template, compiled);
         }
-        matcher.appendTail(resultBuffer); // 追加剩余部分
+        return compiled;
+    }
 
-        return resultBuffer.toString();
+    private static Map<String, PromptTemplate> newTemplateCache() {
+        return Collections.synchronizedMap(new LinkedHashMap<String, PromptTemplate>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PromptTemplate> eldest) {
+                return size() > TEMPLATE_CACHE_SIZE;
+            }
+        });
     }
 
     public static String getConfigValue(Integer type, String key) {
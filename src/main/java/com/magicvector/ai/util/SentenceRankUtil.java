@@ -0,0 +1,174 @@
+package com.magicvector.ai.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 抽取式压缩：将文本切分为句子，按句子中词语在全文中的出现频率打分，
+ * 在tokens预算内选出得分最高的句子，并按原文顺序拼接。
+ * 英文按单词、中文按相邻两个汉字计词，开头的句子有少量加分。
+ */
+public class SentenceRankUtil {
+
+    /**
+     * 非相邻句子之间的省略标记
+     */
+    private static final String OMISSION = "……";
+
+    /**
+     * 将文本压缩到tokens预算内
+     * @param text 原文
+     * @param maxTokens tokens预算
+     * @return 原文不超过预算时直接返回原文
+     */
+    public static String extract(String text, int maxTokens) {
+        if (MessageUtil.countTokens(text) <= maxTokens) {
+            return text;
+        }
+        int[] bounds = splitSentences(text);
+        int sentenceCount = bounds.length - 1;
+
+        List<List<String>> sentenceTerms = new ArrayList<>(sentenceCount);
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (int i = 0; i < sentenceCount; i++) {
+            List<String> terms = terms(text, bounds[i], bounds[i + 1]);
+            sentenceTerms.add(terms);
+            for (String term : terms) {
+                frequencies.merge(term, 1, Integer::sum);
+            }
+        }
+
+        Integer[] order = new Integer[sentenceCount];
+        double[] scores = new double[sentenceCount];
+        for (int i = 0; i < sentenceCount; i++) {
+            order[i] = i;
+            List<String> terms = sentenceTerms.get(i);
+            double score = 0;
+            for (String term : terms) {
+                score += Math.log(1 + frequencies.get(term));
+            }
+            scores[i] = terms.isEmpty() ? 0 : score / Math.sqrt(terms.size()) * (1 + 0.5 / (1 + i));
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+
+        // 为省略标记预留部分预算
+        int budget = maxTokens - maxTokens / 10;
+        boolean[] selected = new boolean[sentenceCount];
+        boolean any = false;
+        for (int index : order) {
+            if (scores[index] <= 0) {
+                break;
+            }
+            int tokens = MessageUtil.countTokens(text.substring(bounds[index], bounds[index + 1]));
+            if (tokens <= budget) {
+                selected[index] = true;
+                any = true;
+                budget -= tokens;
+            }
+        }
+        if (!any) {
+            return truncate(text, maxTokens);
+        }
+
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < sentenceCount; i++) {
+            if (selected[i]) {
+                if (i > 0 && !selected[i - 1]) {
+                    result.append(OMISSION);
+                }
+                result.append(text, bounds[i], bounds[i + 1]);
+            }
+        }
+        if (!selected[sentenceCount - 1]) {
+            result.append(OMISSION);
+        }
+        return result.toString();
+    }
+
+    /**
+     * 截取不超过tokens预算的前缀
+     */
+    public static String truncate(String text, int maxTokens) {
+        int length = text.length();
+        int tokens = MessageUtil.countTokens(text);
+        while (length > 0 && tokens > maxTokens) {
+            length = Math.min(length - 1, (int) ((long) length * maxTokens / tokens * 9 / 10));
+            if (length > 0 && Character.isHighSurrogate(text.charAt(length - 1))) {
+                length--;
+            }
+            tokens = MessageUtil.countTokens(text.substring(0, length));
+        }
+        return text.substring(0, Math.max(length, 0)) + OMISSION;
+    }
+
+    /**
+     * 切分句子，句子之间首尾相接覆盖全文，句末的空白归入下一句
+     * @return 句子的边界，第i个句子为[bounds[i], bounds[i+1])
+     */
+    private static int[] splitSentences(String text) {
+        List<Integer> ends = new ArrayList<>();
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            boolean end;
+            switch (c) {
+                case '。': case '！': case '？': case '；': case '!': case '?': case ';': case '\n':
+                    end = true;
+                    break;
+                case '.':
+                    end = i + 1 == length || Character.isWhitespace(text.charAt(i + 1));
+                    break;
+                default:
+                    end = false;
+            }
+            if (end && i + 1 < length) {
+                ends.add(i + 1);
+            }
+        }
+        int[] bounds = new int[ends.size() + 2];
+        for (int i = 0; i < ends.size(); i++) {
+            bounds[i + 1] = ends.get(i);
+        }
+        bounds[bounds.length - 1] = length;
+        return bounds;
+    }
+
+    private static List<String> terms(String text, int from, int to) {
+        List<String> terms = new ArrayList<>();
+        int i = from;
+        while (i < to) {
+            char c = text.charAt(i);
+            if (isWordChar(c)) {
+                int start = i;
+                while (i < to && isWordChar(text.charAt(i))) {
+                    i++;
+                }
+                if (i - start > 1) {
+                    terms.add(text.substring(start, i).toLowerCase());
+                }
+            } else if (isChineseChar(c)) {
+                if (i + 1 < to && isChineseChar(text.charAt(i + 1))) {
+                    terms.add(text.substring(i, i + 2));
+                } else if (i == from || !isChineseChar(text.charAt(i - 1))) {
+                    terms.add(String.valueOf(c));
+                }
+                i++;
+            } else {
+                i++;
+            }
+        }
+        return terms;
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    private static boolean isChineseChar(char c) {
+        return c >= '\u4e00' && c <= '\u9fa5';
+    }
+
+}
@@ -4,6 +4,7 @@ import com.magicvector.ai.prompts.IPrompt;
 import com.magicvector.ai.wizards.model.MagicChat;
 import java.io.OutputStream;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface IChatWizard {
 
@@ -12,8 +13,24 @@ public interface IChatWizard {
      */
     String doThink(MagicChat chat, OutputStream outputStream);
 
+    /**
+     * 异步版本的{@link #doThink(MagicChat, OutputStream)}，完成时为AI最后一轮的回答。
+     * 默认实现在公共线程池中阻塞地调用doThink，生成期间一直占用一个线程；
+     * {@link com.magicvector.ai.wizards.impl.ChatWizard}通过大脑的异步接口串联各轮次，不占用等待的线程。
+     */
+    default CompletableFuture<String> doThinkAsync(MagicChat chat, OutputStream outputStream){
+        return CompletableFuture.supplyAsync(() -> doThink(chat, outputStream));
+    }
+
     String doResponse(MagicChat chat);
 
+    /**
+     * 异步版本的{@link #doResponse(MagicChat)}，默认实现同{@link #doThinkAsync(MagicChat, OutputStream)}，在公共线程池中阻塞地调用。
+     */
+    default CompletableFuture<String> doResponseAsync(MagicChat chat){
+        return CompletableFuture.supplyAsync(() -> doResponse(chat));
+    }
+
 
     void executeSpells(MagicChat chat, List<String> spellTexts);
 
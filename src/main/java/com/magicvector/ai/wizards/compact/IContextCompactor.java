@@ -0,0 +1,17 @@
+package com.magicvector.ai.wizards.compact;
+
+import com.magicvector.ai.wizards.model.MagicChat;
+
+/**
+ * 上下文压缩器：对话变长时将较早的内容压缩，控制每次发送给大脑的上下文大小。
+ * 魔法师在每次调用大脑前、已占用对话的情况下调用，实现不需要考虑对话的并发修改。
+ */
+public interface IContextCompactor {
+
+    /**
+     * 检查并压缩对话。耗时的压缩应当在后台进行，不阻塞本次回答，结果在之后的调用中再替换进对话。
+     * @param chat 对话
+     */
+    void compact(MagicChat chat);
+
+}
@@ -0,0 +1,143 @@
+package com.magicvector.ai.wizards.compact.impl;
+
+import com.github.tbwork.anole.loader.util.JSON;
+import com.github.tbwork.anole.loader.util.S;
+import com.magicvector.ai.brain.Brain;
+import com.magicvector.ai.brain.llm.openai.model.GPTChoice;
+import com.magicvector.ai.brain.llm.openai.model.GPTResponse;
+import com.magicvector.ai.model.Role;
+import com.magicvector.ai.wizards.compact.IContextCompactor;
+import com.magicvector.ai.wizards.model.MagicChat;
+import com.magicvector.ai.wizards.model.MagicMessage;
+import com.magicvector.ai.wizards.model.PendingSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 摘要压缩：对话的tokens超过阈值时，用大脑（可以是更便宜的模型）在后台把最近几轮之前的对话总结为一条系统消息。
+ * <p>
+ * 摘要请求与本次回答并行，不增加本次回答的延迟；摘要完成后，在下一次调用时替换被摘要的消息。
+ * 如果这期间被摘要的消息已被裁剪或修改，摘要作废。已有的摘要会和之后的对话一起被再次摘要，
+ * 因此对话无论多长，发送给大脑的上下文都保持在阈值附近。
+ * </p>
+ */
+public class SummaryContextCompactor implements IContextCompactor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SummaryContextCompactor.class);
+
+    private static final String SUMMARY_PROMPT = "你是一个对话摘要助手。请将用户给出的对话记录总结为一段简洁的摘要，" +
+            "保留用户的目标、偏好、已确认的事实、咒语的执行结果以及尚未完成的事项，不要编造内容，直接输出摘要。";
+
+    private static final String SUMMARY_HEADER = "以下是之前对话的摘要：\n";
+
+    private final Brain brain;
+
+    /**
+     * 对话的tokens超过此值时开始摘要
+     */
+    private final int thresholdTokens;
+
+    /**
+     * 保留原文不参与摘要的最近轮次数
+     */
+    private final int keepRounds;
+
+    /**
+     * @param brain 生成摘要的大脑
+     * @param thresholdTokens 对话的tokens超过此值时开始摘要
+     * @param keepRounds 保留原文的最近轮次数，至少为1
+     */
+    public SummaryContextCompactor(Brain brain, int thresholdTokens, int keepRounds){
+        this.brain = brain;
+        this.thresholdTokens = thresholdTokens;
+        this.keepRounds = Math.max(1, keepRounds);
+    }
+
+    @Override
+    public void compact(MagicChat chat) {
+        PendingSummary pending = chat.getPendingSummary();
+        if (pending != null) {
+            if (!pending.isDone()) {
+                return;
+            }
+            chat.setPendingSummary(null);
+            applySummary(chat, pending);
+        }
+        if (chat.getTokenCount() <= thresholdTokens) {
+            return;
+        }
+        int keepFrom = findKeepFrom(chat.getChatContent());
+        // 只有已有的摘要本身时不必再摘要
+        if (keepFrom <= 2) {
+            return;
+        }
+        List<MagicMessage> summarizedMessages = new ArrayList<>(chat.getChatContent().subList(1, keepFrom));
+        logger.debug("对话超过{}个tokens，开始在后台摘要最早的{}条消息。", thresholdTokens, summarizedMessages.size());
+        chat.setPendingSummary(new PendingSummary(summarizedMessages, summarize(summarizedMessages)));
+    }
+
+    private void applySummary(MagicChat chat, PendingSummary pending) {
+        String summary = pending.getSummaryNow();
+        if (S.isEmpty(summary)) {
+            return;
+        }
+        MagicMessage summaryMessage = new MagicMessage(Role.SYSTEM.getValue(), SUMMARY_HEADER + summary);
+        if (chat.replaceLeadingMessages(pending.getSummarizedMessages(), summaryMessage)) {
+            logger.debug("已用摘要替换{}条消息。", pending.getSummarizedMessages().size());
+        } else {
+            logger.debug("被摘要的消息已发生变化，摘要作废。");
+        }
+    }
+
+    /**
+     * @return 保留原文的第一条消息的位置，即倒数第keepRounds条用户消息的位置；用户消息不足时返回1
+     */
+    private int findKeepFrom(List<MagicMessage> messages) {
+        int rounds = 0;
+        for (int i = messages.size() - 1; i > 0; i--) {
+            if (Role.USER.getValue().equals(messages.get(i).getRole()) && ++rounds == keepRounds) {
+                return i;
+            }
+        }
+        return 1;
+    }
+
+    private CompletableFuture<String> summarize(List<MagicMessage> messages) {
+        StringBuilder transcript = new StringBuilder();
+        for (MagicMessage message : messages) {
+            transcript.append(message.getRole()).append(": ").append(message.getContent()).append("\n\n");
+        }
+        MagicChat summaryChat = new MagicChat();
+        summaryChat.appendSystemMessage(SUMMARY_PROMPT);
+        summaryChat.appendUserMessage(transcript.toString());
+        CompletableFuture<String> summary;
+        try {
+            summary = brain.responseAsync(summaryChat).thenApply(this::readContent);
+        } catch (Exception e) {
+            summary = new CompletableFuture<>();
+            summary.completeExceptionally(e);
+        }
+        return summary.exceptionally(e -> {
+            logger.warn("Fail to summarize the conversation, details: {}", e.getMessage());
+            return null;
+        });
+    }
+
+    private String readContent(String responseText) {
+        GPTResponse gptResponse = JSON.parseObject(responseText, GPTResponse.class);
+        if (gptResponse == null || gptResponse.getChoices() == null) {
+            return null;
+        }
+        for (GPTChoice choice : gptResponse.getChoices()) {
+            if (choice.getMessage() != null && S.isNotEmpty(choice.getMessage().getContent())) {
+                return choice.getMessage().getContent();
+            }
+        }
+        return null;
+    }
+
+}
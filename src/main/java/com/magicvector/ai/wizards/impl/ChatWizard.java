@@ -1,18 +1,26 @@
 package com.magicvector.ai.wizards.impl;
 
+import com.github.tbwork.anole.loader.Anole;
 import com.github.tbwork.anole.loader.util.JSON;
 import com.github.tbwork.anole.loader.util.S;
 import com.google.gson.JsonObject;
 import com.magicvector.ai.brain.Brain;
+import com.magicvector.ai.brain.IChunkReader;
 import com.magicvector.ai.brain.llm.openai.model.GPTResponse;
+import com.magicvector.ai.core.Spell;
+import com.magicvector.ai.core.builtin.SpellResultBook;
 import com.magicvector.ai.core.manager.SpellManager;
+import com.magicvector.ai.core.manager.SpellRegistry;
 import com.magicvector.ai.exceptions.AIBusyException;
 import com.magicvector.ai.exceptions.MessageStreamException;
+import com.magicvector.ai.exceptions.PromptTokensExceedException;
 import com.magicvector.ai.model.Role;
 import com.magicvector.ai.model.WizardStatus;
 import com.magicvector.ai.util.IOUtil;
 import com.magicvector.ai.util.SpellUtil;
 import com.magicvector.ai.wizards.IChatWizard;
+import com.magicvector.ai.wizards.compact.IContextCompactor;
+import com.magicvector.ai.wizards.compact.impl.SummaryContextCompactor;
 import com.magicvector.ai.wizards.model.MagicChat;
 import com.magicvector.ai.wizards.model.MagicMessage;
 import org.apache.http.util.Asserts;
@@ -20,7 +28,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Core.
@@ -33,6 +50,8 @@ public class ChatWizard implements IChatWizard {
 
     private static final String spellQuoteFirstChar = spellQuote.charAt(0) +"";
 
+    private static volatile ExecutorService streamExecutor;
+
     private Brain brain;
 
     /**
@@ -40,23 +59,103 @@ public class ChatWizard implements IChatWizard {
      */
     private Integer maxRounds;
 
+    /**
+     * 是否在咒语结束符到达时立即执行咒语，与AI继续生成内容并行
+     */
+    private boolean eagerSpellExecution;
+
+    /**
+     * 是否在读到第一个完整咒语后立即中断AI的生成，直接进入咒语执行
+     */
+    private boolean abortAfterSpell;
+
+    /**
+     * 发送给AI的对话tokens上限，超过时整轮删除最早的对话，小于等于0表示不限制
+     */
+    private int maxContextTokens;
+
+    /**
+     * 上下文压缩器，为空时只按tokens上限裁剪
+     */
+    private IContextCompactor contextCompactor;
+
+    /**
+     * 放入对话的咒语结果的大小限制
+     */
+    private SpellResultLimiter resultLimiter;
+
 
     private static final String PARSE_ERROR = "解析AI流式返回时出错，请联系系统管理员。";
 
 
     public ChatWizard(Brain brain, Integer maxRounds){
+        this(brain, maxRounds, Anole.getBoolProperty("magicgpt.config.wizard.spell.eager", false));
+    }
+
+    public ChatWizard(Brain brain, Integer maxRounds, boolean eagerSpellExecution){
         this.brain = brain;
         this.maxRounds = maxRounds;
+        this.eagerSpellExecution = eagerSpellExecution;
+        this.abortAfterSpell = Anole.getBoolProperty("magicgpt.config.wizard.spell.abortAfterClose", false);
+        this.maxContextTokens = Anole.getIntProperty("llm.chat.context.max.tokens", 0);
+        this.resultLimiter = new SpellResultLimiter(
+                Anole.getIntProperty("magicgpt.config.spell.result.max.tokens", 0),
+                Anole.getIntProperty("magicgpt.config.spell.round.result.max.tokens", 0));
+        int compactThresholdTokens = Anole.getIntProperty("magicgpt.config.wizard.compact.threshold.tokens", 0);
+        if (compactThresholdTokens > 0) {
+            this.contextCompactor = new SummaryContextCompactor(brain, compactThresholdTokens,
+                    Anole.getIntProperty("magicgpt.config.wizard.compact.keepRounds", 2));
+        }
     }
 
     public ChatWizard(Brain brain){
-        this.brain = brain;
-        this.maxRounds = 20;
+        this(brain, 20);
+    }
+
+    public void setAbortAfterSpell(boolean abortAfterSpell){
+        this.abortAfterSpell = abortAfterSpell;
+    }
+
+    public void setMaxContextTokens(int maxContextTokens){
+        this.maxContextTokens = maxContextTokens;
+    }
+
+    /**
+     * 设置上下文压缩器，例如使用更便宜的大脑生成摘要的{@link SummaryContextCompactor}
+     */
+    public void setContextCompactor(IContextCompactor contextCompactor){
+        this.contextCompactor = contextCompactor;
+    }
+
+    public void setResultLimiter(SpellResultLimiter resultLimiter){
+        this.resultLimiter = resultLimiter;
+    }
+
+    /**
+     * 调用大脑前先压缩对话，再将对话裁剪到tokens上限内，超长的请求在本地就失败，不必等到远端报错
+     */
+    private void trimContext(MagicChat chat){
+        if (contextCompactor != null) {
+            contextCompactor.compact(chat);
+        }
+        if (maxContextTokens > 0) {
+            int removed = chat.trimToTokens(maxContextTokens);
+            if (removed > 0) {
+                logger.debug("对话超过{}个tokens，删除了最早的{}条消息。", maxContextTokens, removed);
+            }
+        }
     }
 
 
     @Override
     public void executeSpells(MagicChat magicChat, List<String> spellTexts){
+        executeSpells(magicChat, spellTexts, SpellManager.getRegistry());
+    }
+
+    /**
+     * 使用指定版本的咒语注册表执行咒语
+     */
+    private void executeSpells(MagicChat magicChat, List<String> spellTexts, SpellRegistry registry){
         if(spellTexts.isEmpty()){
             return;
         }
@@ -65,12 +164,87 @@ public class ChatWizard implements IChatWizard {
         // 进入念咒语的阶段
         magicChat.setStatus(WizardStatus.SPELLING);
 
+        // 同一轮中的多个咒语并行执行
+        List<DispatchedSpell> dispatchedSpells = new ArrayList<>();
+        for(String spellText:spellTexts){
+            dispatchedSpells.add(dispatchSpell(registry, spellText));
+        }
+        appendSpellResults(magicChat, awaitSpellResults(dispatchedSpells), dispatchedSpells, registry);
+
+        //  恢复进来时的状态。
+        magicChat.setStatus(statusStore);
+
+    }
+
+    /**
+     * 按派发顺序等待即时执行的咒语，并将结果追加到对话中
+     */
+    private void collectSpellResults(MagicChat magicChat, List<DispatchedSpell> dispatchedSpells, SpellRegistry registry){
+        WizardStatus statusStore = magicChat.getWizardStatus();
+        // 进入念咒语的阶段
+        magicChat.setStatus(WizardStatus.SPELLING);
+
+        appendSpellResults(magicChat, awaitSpellResults(dispatchedSpells), dispatchedSpells, registry);
+
+        //  恢复进来时的状态。
+        magicChat.setStatus(statusStore);
+    }
+
+    private DispatchedSpell dispatchSpell(SpellRegistry registry, String spellText){
+        logSpell(spellText);
+        int nameEnd = 0;
+        while (nameEnd < spellText.length() && !Character.isWhitespace(spellText.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        Spell spell = registry.getSpell(spellText.substring(0, nameEnd));
+        return new DispatchedSpell(spellText, spell, SpellManager.execSpellAsync(registry, spellText));
+    }
+
+    /**
+     * 按派发顺序等待咒语的结果。超时由SpellManager按咒语和咒语书的配置控制，超时的咒语以错误信息作为结果。
+     * 等待被中断时取消所有尚未完成的咒语：取消{@link SpellManager#execSpellAsync(SpellRegistry, String)}返回的future
+     * 会同时取消线程池中的任务并中断执行咒语的线程。
+     */
+    private List<String> awaitSpellResults(List<DispatchedSpell> dispatchedSpells){
+        List<String> spellResults = new ArrayList<>();
+        int p = 1;
+        for(DispatchedSpell dispatchedSpell : dispatchedSpells){
+            String spellResult;
+            try{
+                spellResult = dispatchedSpell.result.get();
+            }
+            catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                for (int i = spellResults.size(); i < dispatchedSpells.size(); i++) {
+                    dispatchedSpells.get(i).result.cancel(true);
+                    spellResults.add("ERROR:咒语执行被中断");
+                }
+                break;
+            }
+            catch (ExecutionException e){
+                spellResult = "ERROR:" + e.getCause().getMessage();
+            }
+            logger.debug("咒语[{}]耗时{}ms：{}", p++, dispatchedSpell.getElapsedMillis(), abbreviate(dispatchedSpell.spellText));
+            spellResults.add(spellResult);
+        }
+        return spellResults;
+    }
+
+    /**
+     * 按大小限制处理咒语结果后追加到对话中
+     */
+    private void appendSpellResults(MagicChat magicChat, List<String> spellResults, List<DispatchedSpell> dispatchedSpells, SpellRegistry registry){
+        if(resultLimiter != null && resultLimiter.isEnabled()){
+            List<Spell> spells = new ArrayList<>();
+            for(DispatchedSpell dispatchedSpell : dispatchedSpells){
+                spells.add(dispatchedSpell.spell);
+            }
+            spellResults = resultLimiter.limit(spellResults, spells, registry.getSpellPrompt(SpellResultBook.READ_SPELL_RESULT));
+        }
         int p =1;
         StringBuilder sb = new StringBuilder();
-        for(String spellText:spellTexts){
+        for(String spellResult : spellResults){
             sb.append("["+ p++ +"] ");
-            logger.debug("AI 咒语：{}", spellText.length() > 50 ? spellText.substring(0, 50) + "..." : spellText);
-            String spellResult = SpellManager.execSpell(spellText);
             sb.append(spellResult).append("\n");
         }
 
@@ -80,43 +254,79 @@ public class ChatWizard implements IChatWizard {
         magicChat.appendMessage(new MagicMessage("system", spellResultText));
 
         logger.debug(JSON.toJSONString(magicChat.getChatContent()));
-        //  恢复进来时的状态。
-        magicChat.setStatus(statusStore);
+    }
 
+    private void logSpell(String spellText){
+        logger.debug("AI 咒语：{}", abbreviate(spellText));
+    }
+
+    private String abbreviate(String spellText){
+        return spellText.length() > 50 ? spellText.substring(0, 50) + "..." : spellText;
+    }
+
+    /**
+     * 执行本轮回答中的咒语并将结果追加到对话中。
+     * 开启即时执行时，咒语已在读取流的过程中派发，这里只按顺序收集结果。
+     * @param registry 本次思考开始时的咒语注册表快照
+     * @return 本轮没有咒语时返回false
+     */
+    private boolean castSpells(MagicChat chat, String aiResponse, SpellRegistry registry, List<DispatchedSpell> dispatchedSpells){
+        if(eagerSpellExecution){
+            if(dispatchedSpells.isEmpty()){
+                return false;
+            }
+            collectSpellResults(chat, dispatchedSpells, registry);
+            return true;
+        }
+        List<String> spells = SpellUtil.findSpells(aiResponse);
+        if(spells.isEmpty()){
+            return false;
+        }
+        executeSpells(chat, spells, registry);
+        return true;
     }
 
 
 
     @Override
     public String doThink(MagicChat chat, OutputStream outputStream) {
-        // 如果AI在忙，报错
-        if(!chat.isIdle()){
+        // 如果AI在忙，报错；检查和占用是原子的，并发调用只有一个能进入
+        if(!chat.compareAndSetStatus(WizardStatus.IDLE, WizardStatus.RESPONDING)){
             throw new AIBusyException(chat.getWizardStatus());
         }
+        try {
+            return think(chat, outputStream);
+        } finally {
+            chat.setStatus(WizardStatus.IDLE);
+            closeQuietly(outputStream);
+        }
+    }
 
+    private String think(MagicChat chat, OutputStream outputStream) {
+        // 整个思考过程使用同一个版本的咒语，期间咒语书的热更新不影响本次对话
+        SpellRegistry registry = SpellManager.getRegistry();
         String aiResponse = "";
         int p = 0;
         while( p++ < maxRounds){
             try {
                 // 大脑的输出就是这里的输入流
+                trimContext(chat);
                 InputStream inputStream = brain.process(chat);
                 chat.setStatus(WizardStatus.RESPONDING);
-                aiResponse = processMixedResponseStream(inputStream, outputStream);
+                List<DispatchedSpell> dispatchedSpells = new ArrayList<>();
+                aiResponse = processMixedResponseStream(inputStream, outputStream, registry, dispatchedSpells);
                 logger.debug(aiResponse);
                 chat.appendMessage(Role.ASSISTANT, aiResponse);
                 /*
                   如果输出为咒语：
                   1. 执行咒语(获得结果并放入Chat中)
                   2. 重新调用generate获取最新结果, outputstream不变
+                  最后一轮的咒语同样执行并记录结果，但不再调用AI
                  */
-                List<String> spells = SpellUtil.findSpells(aiResponse);
-                if(spells.isEmpty()){
+                if(!castSpells(chat, aiResponse, registry, dispatchedSpells)){
                     //没有咒语了，就说AI已经完成了任务。
-                    chat.setStatus(WizardStatus.IDLE);
-                    outputStream.close();
                     break;
                 }
-                executeSpells(chat, spells);
             } catch (Exception e) {
                 throw new MessageStreamException("AI回答加工处理失败，原因：" + e.getMessage());
             }
@@ -125,13 +335,148 @@ public class ChatWizard implements IChatWizard {
 
     }
 
+    @Override
+    public CompletableFuture<String> doThinkAsync(MagicChat chat, OutputStream outputStream) {
+        // 如果AI在忙，报错
+        if(!chat.compareAndSetStatus(WizardStatus.IDLE, WizardStatus.RESPONDING)){
+            CompletableFuture<String> busy = new CompletableFuture<>();
+            busy.completeExceptionally(new AIBusyException(chat.getWizardStatus()));
+            return busy;
+        }
+        // 整个思考过程使用同一个版本的咒语，期间咒语书的热更新不影响本次对话
+        CompletableFuture<String> result = new CompletableFuture<>();
+        thinkRoundAsync(chat, outputStream, SpellManager.getRegistry(), 1, result);
+        // 无论成功与否都结束思考并关闭输出流，调用方的后续处理在此之后执行
+        return result.whenComplete((aiResponse, e) -> {
+            chat.setStatus(WizardStatus.IDLE);
+            closeQuietly(outputStream);
+        });
+    }
+
+    /**
+     * 异步执行一轮思考，如果本轮产生了咒语，执行后再串联下一轮，与{@link #think(MagicChat, OutputStream)}的处理一致。
+     * 等待远端响应期间不占用线程；响应开始返回后，读取流和等待咒语结果在有界的线程池中进行，不占用HTTP客户端的回调线程。
+     */
+    private void thinkRoundAsync(MagicChat chat, OutputStream outputStream, SpellRegistry registry, int round, CompletableFuture<String> result){
+        try {
+            trimContext(chat);
+        } catch (PromptTokensExceedException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        brain.processAsync(chat).whenComplete((inputStream, e) -> {
+            if(e != null){
+                result.completeExceptionally(e);
+                return;
+            }
+            try {
+                getStreamExecutor().execute(() -> {
+                    try {
+                        chat.setStatus(WizardStatus.RESPONDING);
+                        List<DispatchedSpell> dispatchedSpells = new ArrayList<>();
+                        String aiResponse = processMixedResponseStream(inputStream, outputStream, registry, dispatchedSpells);
+                        logger.debug(aiResponse);
+                        chat.appendMessage(Role.ASSISTANT, aiResponse);
+                        if(!castSpells(chat, aiResponse, registry, dispatchedSpells) || round >= maxRounds){
+                            //没有咒语了，就说AI已经完成了任务。
+                            result.complete(aiResponse);
+                            return;
+                        }
+                    } catch (Exception ex) {
+                        result.completeExceptionally(new MessageStreamException("AI回答加工处理失败，原因：" + ex.getMessage()));
+                        return;
+                    }
+                    thinkRoundAsync(chat, outputStream, registry, round + 1, result);
+                });
+            } catch (RejectedExecutionException rejected) {
+                logger.warn("处理AI回答的线程池已满。");
+                closeQuietly(inputStream);
+                result.completeExceptionally(rejected);
+            }
+        });
+    }
+
+    private static void closeQuietly(Closeable closeable){
+        if(closeable == null){
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            logger.debug("Fail to close stream, details: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 异步思考中读取AI回答流和执行咒语的线程池，所有魔法师共享。线程数即同时进行中的异步回答的上限。
+     */
+    private static ExecutorService getStreamExecutor(){
+        if(streamExecutor == null){
+            synchronized (ChatWizard.class){
+                if(streamExecutor == null){
+                    int maxSize = Anole.getIntProperty("magicgpt.config.wizard.stream.threads.maxSize", 256);
+                    int queueSize = Anole.getIntProperty("magicgpt.config.wizard.stream.threads.queueSize", 10000);
+                    long keepAliveSeconds = Anole.getLongProperty("magicgpt.config.wizard.stream.threads.keepAliveTime.second", 60L);
+                    AtomicInteger threadNumber = new AtomicInteger(1);
+                    ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
+                            maxSize,
+                            maxSize,
+                            keepAliveSeconds,
+                            TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(queueSize),
+                            runnable -> {
+                                Thread thread = new Thread(runnable, "magicgpt-wizard-stream-" + threadNumber.getAndIncrement());
+                                thread.setDaemon(true);
+                                return thread;
+                            },
+                            new ThreadPoolExecutor.AbortPolicy()
+                    );
+                    threadPool.allowCoreThreadTimeOut(true);
+                    streamExecutor = threadPool;
+                }
+            }
+        }
+        return streamExecutor;
+    }
+
     @Override
     public String doResponse(MagicChat chat) {
         // 如果AI在忙，报错
-        if(!chat.isIdle()){
+        if(!chat.compareAndSetStatus(WizardStatus.IDLE, WizardStatus.RESPONDING)){
             throw new AIBusyException(chat.getWizardStatus());
         }
-        String responseText = brain.response(chat);
+        String responseText;
+        try {
+            trimContext(chat);
+            responseText = brain.response(chat);
+        } finally {
+            chat.setStatus(WizardStatus.IDLE);
+        }
+        return parseResponse(responseText);
+    }
+
+    @Override
+    public CompletableFuture<String> doResponseAsync(MagicChat chat) {
+        // 如果AI在忙，报错
+        if(!chat.compareAndSetStatus(WizardStatus.IDLE, WizardStatus.RESPONDING)){
+            CompletableFuture<String> busy = new CompletableFuture<>();
+            busy.completeExceptionally(new AIBusyException(chat.getWizardStatus()));
+            return busy;
+        }
+        CompletableFuture<String> responseText;
+        try {
+            trimContext(chat);
+            responseText = brain.responseAsync(chat);
+        } catch (RuntimeException e) {
+            responseText = new CompletableFuture<>();
+            responseText.completeExceptionally(e);
+        }
+        return responseText
+                .whenComplete((text, e) -> chat.setStatus(WizardStatus.IDLE))
+                .thenApply(ChatWizard::parseResponse);
+    }
+
+    private static String parseResponse(String responseText) {
         GPTResponse gptResponse = JSON.parseObject(responseText, GPTResponse.class);
 
         Asserts.check( gptResponse.getChoices()!=null
@@ -149,63 +494,39 @@ public class ChatWizard implements IChatWizard {
      * 处理AI的输出流（对这里来说是输入流），正常的可见输出直接放入输出流。
      * @param aiResponseStream AI大脑输出的流,可能存在混排，也就是正常内容+咒语。
      * @param outputStream 指定的输出流
+     * @param registry 执行咒语使用的注册表快照
+     * @param dispatchedSpells 开启即时执行时，流中读到的完整咒语会立即派发执行，其结果按顺序放入此列表
      * @return 返回整个AI的返回（包括内容+咒语）
      * @throws IOException
      */
-    private String processMixedResponseStream(InputStream aiResponseStream, OutputStream outputStream) throws IOException {
+    private String processMixedResponseStream(InputStream aiResponseStream, OutputStream outputStream, SpellRegistry registry, List<DispatchedSpell> dispatchedSpells) throws IOException {
 
         StringBuilder responseBuffer = new StringBuilder();
-        StringBuilder spellStartTag = new StringBuilder();
-        StringBuilder spellEndTag = new StringBuilder();
 
         if(aiResponseStream != null){
             // 仅当当前的脑处理器有内容输出才需要处理，没有输出也是可以的。
-            BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(aiResponseStream));
-            String line;//每一行都是一个返回的片段。
-            while ((line = bufferedReader.readLine()) != null) {
-                if(line.isEmpty()){
-                    continue;
-                }
-                if(this.isErrorResponse(line)){
-                    this.readAndLogError(bufferedReader);
-                    IOUtil.writeToOutputStream(PARSE_ERROR, outputStream);
-                    break;
-                }
-                String chunkText = brain.parseChunk(line);
-                if("EOF".equals(chunkText)){
-                    //结束了
+            IChunkReader chunkReader = brain.openChunkReader(aiResponseStream);
+            SpellDelimiterMatcher delimiterMatcher = eagerSpellExecution
+                    ? new SpellDelimiterMatcher(spellQuote, outputStream, spellText -> {
+                        dispatchedSpells.add(dispatchSpell(registry, spellText));
+                    })
+                    : new SpellDelimiterMatcher(spellQuote, outputStream);
+            delimiterMatcher.setStopAfterSpell(abortAfterSpell);
+            String chunkText;
+            while ((chunkText = chunkReader.nextChunk()) != null) {
+                // 咒语之外的可见内容直接写入输出流
+                int consumed = delimiterMatcher.feed(chunkText);
+                responseBuffer.append(chunkText, 0, consumed);
+                if(delimiterMatcher.isStopped()){
+                    // 咒语已完整，之后生成的内容没有意义，关闭流以中断远端的生成
+                    logger.debug("咒语已完整，中断AI的生成。");
                     aiResponseStream.close();
                     break;
                 }
-                responseBuffer.append(chunkText);
-                int p = 0;
-                while( p < chunkText.length()){
-                    String charText = chunkText.substring(p,p+1);
-                    p++;
-                    if(spellStartTag.length()<spellQuote.length()){
-                        spellStartTag.append(charText);
-                        if(!spellQuote.startsWith(spellStartTag.toString())){
-                            IOUtil.writeToOutputStream(charText, outputStream);
-                            spellStartTag = new StringBuilder();
-                            continue;
-                        }
-                    }
-
-                    if(spellQuote.contentEquals(spellStartTag)){
-                        if(spellEndTag.length()<spellQuote.length()){
-                            spellEndTag.append(charText);
-                            if(!spellQuote.startsWith(spellEndTag.toString())){
-                                spellEndTag = new StringBuilder();
-                            }
-                        }
-                        if(spellQuote.contentEquals(spellEndTag)){
-                            // 重置
-                            spellStartTag = new StringBuilder();
-                            spellEndTag = new StringBuilder();
-                        }
-                    }
-
-                }
+            }
+            delimiterMatcher.finish();
+            if(chunkReader.isFailed()){
+                IOUtil.writeToOutputStream(PARSE_ERROR, outputStream);
             }
         }
         return responseBuffer.toString();
@@ -293,5 +614,38 @@ public class ChatWizard implements IChatWizard {
     }
 
 
+    /**
+     * 已派发执行的咒语
+     */
+    private static class DispatchedSpell {
+
+        private final String spellText;
+
+        /**
+         * 派发时解析出的咒语，找不到时为null
+         */
+        private final Spell spell;
+
+        private final CompletableFuture<String> result;
+
+        private final long dispatchTime = System.currentTimeMillis();
+
+        private volatile long finishTime = 0L;
+
+        private DispatchedSpell(String spellText, Spell spell, CompletableFuture<String> result){
+            this.spellText = spellText;
+            this.spell = spell;
+            this.result = result;
+            result.whenComplete((spellResult, e) -> this.finishTime = System.currentTimeMillis());
+        }
+
+        /**
+         * @return 从派发到执行完成的耗时，尚未完成时为到目前为止的耗时
+         */
+        private long getElapsedMillis(){
+            long end = finishTime > 0 ? finishTime : System.currentTimeMillis();
+            return end - dispatchTime;
+        }
+    }
 
 }
@@ -0,0 +1,246 @@
+package com.magicvector.ai.wizards.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.function.Consumer;
+
+/**
+ * 咒语分隔符状态机：逐字符识别流式输出中成对出现的咒语分隔符，
+ * 分隔符之外的可见文本按段编码后写入输出流，分隔符及咒语内容不输出。
+ * <p>
+ * 匹配状态跨片段保留，分隔符被拆分在多个片段中也能正确识别；
+ * 部分匹配失败时按KMP的失败函数回退，已暂存的分隔符前缀会作为可见文本补写。
+ * 处理过程中只使用预先分配的缓冲区，不产生逐字符的对象分配。
+ * 如果指定了咒语接收者，每个咒语在结束分隔符到达时即以去除首尾空白的文本交给接收者。
+ * </p>
+ * 非线程安全，每个流使用独立的实例，可通过{@link #reset()}复用。
+ */
+public class SpellDelimiterMatcher {
+
+    private static final int BUFFER_SIZE = 1024;
+
+    private final char[] delimiter;
+
+    /**
+     * KMP失败函数：failure[k]为delimiter前k个字符的最长真前后缀长度
+     */
+    private final int[] failure;
+
+    private final OutputStream outputStream;
+
+    private final CharsetEncoder encoder;
+
+    private final CharBuffer visible = CharBuffer.allocate(BUFFER_SIZE);
+
+    private final ByteBuffer encoded;
+
+    /**
+     * 完整咒语的接收者，可为空
+     */
+    private final Consumer<String> spellConsumer;
+
+    /**
+     * 当前咒语的内容，仅在指定了接收者时收集
+     */
+    private final StringBuilder spellBody = new StringBuilder();
+
+    /**
+     * 当前已匹配的分隔符字符数
+     */
+    private int matched = 0;
+
+    /**
+     * 当前是否处于咒语内部
+     */
+    private boolean inSpell = false;
+
+    /**
+     * 已完整读到的咒语数量
+     */
+    private int closedSpellCount = 0;
+
+    /**
+     * 是否在读到第一个完整咒语后停止处理
+     */
+    private boolean stopAfterSpell = false;
+
+    public SpellDelimiterMatcher(String delimiter, OutputStream outputStream){
+        this(delimiter, outputStream, null);
+    }
+
+    public SpellDelimiterMatcher(String delimiter, OutputStream outputStream, Consumer<String> spellConsumer){
+        this.spellConsumer = spellConsumer;
+        this.delimiter = delimiter.toCharArray();
+        this.failure = buildFailure(this.delimiter);
+        this.outputStream = outputStream;
+        this.encoder = Charset.defaultCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.encoded = ByteBuffer.allocate((int) Math.ceil(BUFFER_SIZE * encoder.maxBytesPerChar()));
+    }
+
+    /**
+     * 处理一个流式片段，片段中的可见文本会在方法返回前写入输出流
+     * @param chunk 片段
+     * @return 处理了的字符数，开启了{@link #setStopAfterSpell(boolean)}时可能小于片段长度
+     * @throws IOException
+     */
+    public int feed(CharSequence chunk) throws IOException {
+        int length = chunk.length();
+        int consumed = 0;
+        while (consumed < length && !isStopped()) {
+            accept(chunk.charAt(consumed++));
+        }
+        flush(false);
+        return consumed;
+    }
+
+    /**
+     * 设置是否在读到第一个完整咒语后停止处理，之后的内容不再输出
+     */
+    public void setStopAfterSpell(boolean stopAfterSpell) {
+        this.stopAfterSpell = stopAfterSpell;
+    }
+
+    /**
+     * @return 是否已因读到完整咒语而停止处理
+     */
+    public boolean isStopped() {
+        return stopAfterSpell && closedSpellCount > 0;
+    }
+
+    /**
+     * 流结束时调用：尚未确认的分隔符前缀作为可见文本输出
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        if (!inSpell) {
+            for (int i = 0; i < matched; i++) {
+                emit(delimiter[i]);
+            }
+        }
+        matched = 0;
+        flush(true);
+        encoded.clear();
+        encoder.flush(encoded);
+        writeEncoded();
+        encoder.reset();
+    }
+
+    /**
+     * 重置状态以便处理新的流
+     */
+    public void reset() {
+        matched = 0;
+        inSpell = false;
+        closedSpellCount = 0;
+        spellBody.setLength(0);
+        visible.clear();
+        encoded.clear();
+        encoder.reset();
+    }
+
+    public boolean isInSpell() {
+        return inSpell;
+    }
+
+    public int getClosedSpellCount() {
+        return closedSpellCount;
+    }
+
+    private void accept(char c) throws IOException {
+        while (true) {
+            if (c == delimiter[matched]) {
+                if (++matched == delimiter.length) {
+                    matched = 0;
+                    if (inSpell) {
+                        closedSpellCount++;
+                        closeSpell();
+                    }
+                    inSpell = !inSpell;
+                }
+                return;
+            }
+            if (matched == 0) {
+                if (inSpell) {
+                    collect(c);
+                } else {
+                    emit(c);
+                }
+                return;
+            }
+            // 部分匹配失败，回退并补写不再可能成为分隔符的前缀
+            int fallback = failure[matched];
+            for (int i = 0; i < matched - fallback; i++) {
+                if (inSpell) {
+                    collect(delimiter[i]);
+                } else {
+                    emit(delimiter[i]);
+                }
+            }
+            matched = fallback;
+        }
+    }
+
+    private void collect(char c) {
+        if (spellConsumer != null) {
+            spellBody.append(c);
+        }
+    }
+
+    private void closeSpell() {
+        if (spellConsumer != null) {
+            String spellText = spellBody.toString().trim();
+            spellBody.setLength(0);
+            spellConsumer.accept(spellText);
+        }
+    }
+
+    private void emit(char c) throws IOException {
+        if (!visible.hasRemaining()) {
+            flush(false);
+        }
+        visible.put(c);
+    }
+
+    private void flush(boolean endOfInput) throws IOException {
+        visible.flip();
+        CoderResult result;
+        do {
+            result = encoder.encode(visible, encoded, endOfInput);
+            writeEncoded();
+        } while (result.isOverflow());
+        // 保留未编码完的代理对高位字符
+        visible.compact();
+    }
+
+    private void writeEncoded() throws IOException {
+        encoded.flip();
+        if (encoded.hasRemaining()) {
+            outputStream.write(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+        }
+        encoded.clear();
+    }
+
+    private static int[] buildFailure(char[] pattern) {
+        int[] failure = new int[pattern.length + 1];
+        int k = 0;
+        for (int i = 1; i < pattern.length; i++) {
+            while (k > 0 && pattern[i] != pattern[k]) {
+                k = failure[k];
+            }
+            if (pattern[i] == pattern[k]) {
+                k++;
+            }
+            failure[i + 1] = k;
+        }
+        return failure;
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.magicvector.ai.wizards.impl;
+
+import com.magicvector.ai.core.Spell;
+import com.magicvector.ai.core.builtin.SpellResultBook;
+import com.magicvector.ai.executors.store.SpellResultStoreFactory;
+import com.magicvector.ai.util.MessageUtil;
+import com.magicvector.ai.util.SentenceRankUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 限制放入对话的咒语结果的大小。
+ * <p>
+ * 每个结果的上限取咒语注解中的值，未指定时取全局配置；一轮中所有结果的总量另有上限，
+ * 超出时按结果从小到大平均分配，较短的结果不受影响。超过上限的结果只保留抽取出的要点，
+ * 如果可以分页查看，完整结果保存到咒语结果存储中，并在摘录后附上句柄。
+ * </p>
+ */
+public class SpellResultLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpellResultLimiter.class);
+
+    /**
+     * 单个结果的默认tokens上限，小于等于0表示不限制
+     */
+    private final int maxResultTokens;
+
+    /**
+     * 一轮中所有结果的tokens上限，小于等于0表示不限制
+     */
+    private final int maxRoundTokens;
+
+    public SpellResultLimiter(int maxResultTokens, int maxRoundTokens){
+        this.maxResultTokens = maxResultTokens;
+        this.maxRoundTokens = maxRoundTokens;
+    }
+
+    /**
+     * @return 是否需要限制结果
+     */
+    public boolean isEnabled(){
+        return maxResultTokens > 0 || maxRoundTokens > 0;
+    }
+
+    /**
+     * @param results 一轮中各咒语的结果
+     * @param spells 结果对应的咒语，找不到咒语时为null
+     * @param pagingSpellPrompt {@link SpellResultBook#READ_SPELL_RESULT}的提示词，为null表示该咒语未注册，不能分页查看完整结果
+     * @return 限制后的结果
+     */
+    public List<String> limit(List<String> results, List<Spell> spells, String pagingSpellPrompt){
+        int count = results.size();
+        int[] tokens = new int[count];
+        int[] caps = new int[count];
+        for (int i = 0; i < count; i++) {
+            tokens[i] = MessageUtil.countTokens(results.get(i));
+            Spell spell = spells.get(i);
+            int cap = spell != null && spell.getMaxResultTokens() > 0 ? spell.getMaxResultTokens() : maxResultTokens;
+            caps[i] = cap > 0 ? cap : Integer.MAX_VALUE;
+        }
+        if (maxRoundTokens > 0) {
+            shareRoundBudget(tokens, caps);
+        }
+
+        List<String> limited = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            limited.add(tokens[i] > caps[i] ? shrink(results.get(i), tokens[i], caps[i], pagingSpellPrompt) : results.get(i));
+        }
+        return limited;
+    }
+
+    /**
+     * 按结果从小到大依次分配一轮的预算，每个结果最多分到剩余预算的平均值
+     */
+    private void shareRoundBudget(int[] tokens, int[] caps){
+        int count = tokens.length;
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(Math.min(tokens[a], caps[a]), Math.min(tokens[b], caps[b])));
+        int remaining = maxRoundTokens;
+        for (int k = 0; k < count; k++) {
+            int i = order[k];
+            caps[i] = Math.max(1, Math.min(caps[i], remaining / (count - k)));
+            remaining -= Math.min(tokens[i], caps[i]);
+        }
+    }
+
+    private String shrink(String result, int tokens, int cap, String pagingSpellPrompt){
+        String note = "\n（结果过长，以上为摘录）";
+        if (pagingSpellPrompt != null) {
+            try {
+                String handle = SpellResultStoreFactory.getInstance().save(result);
+                note = "\n（结果过长，以上为摘录。完整结果共" + SpellResultBook.getPageCount(result.length())
+                        + "页，句柄为" + handle + "，可使用以下咒语分页查看）\n" + pagingSpellPrompt.trim();
+            } catch (Exception e) {
+                logger.warn("Fail to spill spell result, details: {}", e.getMessage());
+            }
+        }
+        int budget = Math.max(1, cap - MessageUtil.countTokens(note));
+        logger.debug("咒语结果有{}个tokens，超过上限{}，压缩后放入对话。", tokens, cap);
+        return SentenceRankUtil.extract(result, budget) + note;
+    }
+
+}
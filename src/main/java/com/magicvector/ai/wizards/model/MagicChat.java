@@ -1,8 +1,11 @@
 package com.magicvector.ai.wizards.model;
 
+import com.magicvector.ai.exceptions.PromptTokensExceedException;
 import com.magicvector.ai.model.Role;
 import com.magicvector.ai.model.WizardStatus;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Setter;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -13,6 +16,23 @@ public class MagicChat {
     private List<MagicMessage> chatContent;
     private volatile WizardStatus wizardStatus;
 
+    /**
+     * 已统计的消息的tokens总数，随消息的添加和清理增量维护
+     */
+    @Setter(AccessLevel.NONE)
+    private int tokenCount;
+
+    /**
+     * 末尾尚未计入tokenCount的消息数，读取总数时才统计，避免添加消息时立即分词
+     */
+    @Setter(AccessLevel.NONE)
+    private int uncountedMessages;
+
+    /**
+     * 后台进行中的对话摘要，不随对话持久化
+     */
+    private transient volatile PendingSummary pendingSummary;
+
     public MagicChat(){
         chatContent = new ArrayList<MagicMessage>();
         this.wizardStatus = WizardStatus.IDLE;
@@ -20,6 +40,97 @@ public class MagicChat {
 
     public void appendMessage(MagicMessage magicMessage){
         this.chatContent.add(magicMessage);
+        this.uncountedMessages++;
+    }
+
+    public void setChatContent(List<MagicMessage> chatContent){
+        this.chatContent = chatContent;
+        this.tokenCount = 0;
+        this.uncountedMessages = chatContent.size();
+        this.pendingSummary = null;
+    }
+
+    /**
+     * @return 对话中所有消息的tokens总数
+     */
+    public int getTokenCount(){
+        int size = chatContent.size();
+        for (int i = size - uncountedMessages; i < size; i++) {
+            tokenCount += chatContent.get(i).getTokenCount();
+        }
+        uncountedMessages = 0;
+        return tokenCount;
+    }
+
+    /**
+     * 对话的tokens总数超过预算时，从最早的轮次开始整轮删除（保留首条系统提示词和最后一轮），
+     * 一个轮次是从一条用户消息到下一条用户消息之前的所有消息。
+     * 只扫描被删除的消息，不重新统计保留的消息；删除时ArrayList会用一次System.arraycopy前移保留的消息引用，
+     * 这部分与保留的消息数成正比，但不涉及分词，相对扫描可以忽略。
+     * @param maxTokenCount tokens预算
+     * @return 删除的消息数
+     * @throws PromptTokensExceedException 删除所有可删除的轮次后仍然超过预算
+     */
+    public int trimToTokens(int maxTokenCount){
+        if (getTokenCount() <= maxTokenCount || chatContent.size() <= 1) {
+            return 0;
+        }
+        int lastRoundStart = chatContent.size();
+        while (lastRoundStart > 1 && !Role.USER.getValue().equals(chatContent.get(lastRoundStart - 1).getRole())) {
+            lastRoundStart--;
+        }
+        // 最后一条用户消息的位置，没有用户消息时不删除任何消息
+        lastRoundStart = lastRoundStart > 1 ? lastRoundStart - 1 : 1;
+
+        int cut = 1;
+        int removedTokens = 0;
+        int scannedTokens = 0;
+        for (int i = 1; i < lastRoundStart && tokenCount - removedTokens > maxTokenCount; i++) {
+            scannedTokens += chatContent.get(i).getTokenCount();
+            int next = i + 1;
+            if (next == lastRoundStart || Role.USER.getValue().equals(chatContent.get(next).getRole())) {
+                // 到达轮次的边界
+                cut = next;
+                removedTokens = scannedTokens;
+            }
+        }
+        if (cut > 1) {
+            chatContent.subList(1, cut).clear();
+            tokenCount -= removedTokens;
+        }
+        if (tokenCount > maxTokenCount) {
+            throw new PromptTokensExceedException(tokenCount, maxTokenCount);
+        }
+        return cut - 1;
+    }
+
+    /**
+     * 用一条消息替换从第二条开始的一段消息，仅当这些位置上仍然是expected中的同一批消息时才替换
+     * @param expected 要替换的消息
+     * @param replacement 替换后的消息
+     * @return 是否替换
+     */
+    public boolean replaceLeadingMessages(List<MagicMessage> expected, MagicMessage replacement){
+        int end = expected.size() + 1;
+        if (expected.isEmpty() || chatContent.size() < end) {
+            return false;
+        }
+        for (int i = 1; i < end; i++) {
+            if (chatContent.get(i) != expected.get(i - 1)) {
+                return false;
+            }
+        }
+        int removedTokens = 0;
+        for (MagicMessage message : expected) {
+            removedTokens += message.getTokenCount();
+        }
+        // 先统计末尾尚未计入的消息，替换后它们的位置会变化
+        getTokenCount();
+        List<MagicMessage> replaced = chatContent.subList(1, end);
+        replaced.clear();
+        replaced.add(replacement);
+        tokenCount += replacement.getTokenCount() - removedTokens;
+        return true;
     }
 
     public void appendMessage(Role role, String content){
@@ -39,10 +150,22 @@ public class MagicChat {
     }
 
 
-    public void setStatus(WizardStatus wizardStatus){
+    public synchronized void setStatus(WizardStatus wizardStatus){
         this.wizardStatus = wizardStatus;
     }
 
+    /**
+     * 仅当当前状态为expect时才更新为update，用于原子地判断并占用魔法师
+     * @return 更新成功返回true
+     */
+    public synchronized boolean compareAndSetStatus(WizardStatus expect, WizardStatus update){
+        if(this.wizardStatus != expect){
+            return false;
+        }
+        this.wizardStatus = update;
+        return true;
+    }
+
 
     public boolean isIdle(){
         return this.wizardStatus.equals(WizardStatus.IDLE);
@@ -61,5 +184,8 @@ public class MagicChat {
         MagicMessage systemPromot = chatContent.get(0);
         chatContent.clear();
         chatContent.add(systemPromot);
+        tokenCount = 0;
+        uncountedMessages = 1;
+        pendingSummary = null;
     }
 }
@@ -1,7 +1,11 @@
 package com.magicvector.ai.wizards.model;
 
 import com.magicvector.ai.util.MessageUtil;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Setter;
+import lombok.ToString;
 
 @Data
 public class MagicMessage {
@@ -10,12 +14,23 @@ public class MagicMessage {
 
     private String content;
 
-    private int tokenCount;
+    /**
+     * 首次读取时才统计，小于0表示尚未统计；由内容决定，不参与相等比较
+     */
+    @EqualsAndHashCode.Exclude
+    private volatile int tokenCount;
+
+    /**
+     * 消息的JSON片段，首次读取时编码，角色或内容变化后重新编码；不参与序列化
+     */
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private transient volatile byte[] jsonFragment;
 
     public MagicMessage(String role, String content){
         this.role = role;
         this.content = content;
-        this.tokenCount = MessageUtil.countTokens(content);
+        this.tokenCount = -1;
     }
 
     public MagicMessage(){
@@ -24,4 +39,36 @@ public class MagicMessage {
         this.tokenCount = 0;
     }
 
+    public void setRole(String role){
+        this.role = role;
+        this.jsonFragment = null;
+    }
+
+    public void setContent(String content){
+        this.content = content;
+        this.tokenCount = -1;
+        this.jsonFragment = null;
+    }
+
+    public int getTokenCount(){
+        int count = tokenCount;
+        if (count < 0) {
+            count = content == null ? 0 : MessageUtil.countTokens(content);
+            tokenCount = count;
+        }
+        return count;
+    }
+
+    /**
+     * @return 消息的JSON对象{"role":...,"content":...}的UTF-8字节，调用方不能修改
+     */
+    public byte[] getJsonFragment(){
+        byte[] fragment = jsonFragment;
+        if (fragment == null) {
+            fragment = MessageUtil.toJsonFragment(role, content);
+            jsonFragment = fragment;
+        }
+        return fragment;
+    }
+
 }
@@ -0,0 +1,41 @@
+package com.magicvector.ai.wizards.model;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 后台进行中的对话摘要：被摘要的消息快照及摘要的结果
+ */
+public class PendingSummary {
+
+    /**
+     * 被摘要的消息，即对话中从第二条开始的连续消息
+     */
+    private final List<MagicMessage> summarizedMessages;
+
+    /**
+     * 完成时为摘要内容，摘要失败时为null
+     */
+    private final CompletableFuture<String> summary;
+
+    public PendingSummary(List<MagicMessage> summarizedMessages, CompletableFuture<String> summary){
+        this.summarizedMessages = summarizedMessages;
+        this.summary = summary;
+    }
+
+    public List<MagicMessage> getSummarizedMessages() {
+        return summarizedMessages;
+    }
+
+    public boolean isDone(){
+        return summary.isDone();
+    }
+
+    /**
+     * @return 摘要内容，尚未完成或失败时返回null
+     */
+    public String getSummaryNow(){
+        return summary.getNow(null);
+    }
+
+}
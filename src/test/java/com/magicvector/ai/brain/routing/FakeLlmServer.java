@@ -0,0 +1,162 @@
+package com.magicvector.ai.brain.routing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于ServerSocket的本地LLM接口，用于测试：每个请求返回固定的流式回复或错误状态码，可以设置响应前的延迟。
+ * 每个连接只处理一个请求，响应后关闭连接。
+ */
+class FakeLlmServer implements Closeable {
+
+    private static final String STREAM_BODY = "data: {\"choices\":[{\"delta\":{\"content\":\"你好\"}}]}\n\n"
+            + "data: {\"choices\":[{\"delta\":{\"content\":\"！\"}}]}\n\n"
+            + "data: [DONE]\n\n";
+
+    private static final String ERROR_BODY = "{\"error\":{\"message\":\"upstream unavailable\"}}";
+
+    private final ServerSocket serverSocket;
+
+    private final AtomicInteger requests = new AtomicInteger(0);
+
+    private volatile int status = 200;
+
+    private volatile long delayMillis = 0L;
+
+    FakeLlmServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "fake-llm-" + serverSocket.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/v1/chat/completions";
+    }
+
+    int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @param status 响应的状态码，200时返回流式回复，否则返回错误信息
+     */
+    void setStatus(int status) {
+        this.status = status;
+    }
+
+    void setDelayMillis(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            Thread handler = new Thread(() -> handle(socket), "fake-llm-handler");
+            handler.setDaemon(true);
+            handler.start();
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            InputStream in = s.getInputStream();
+            if (!readRequest(in)) {
+                return;
+            }
+            requests.incrementAndGet();
+            if (delayMillis > 0) {
+                Thread.sleep(delayMillis);
+            }
+            int code = status;
+            byte[] body = (code == 200 ? STREAM_BODY : ERROR_BODY).getBytes(StandardCharsets.UTF_8);
+            String head = "HTTP/1.1 " + code + (code == 200 ? " OK" : " Error") + "\r\n"
+                    + "Content-Type: " + (code == 200 ? "text/event-stream" : "application/json") + "; charset=utf-8\r\n"
+                    + "Content-Length: " + body.length + "\r\n"
+                    + "Connection: close\r\n\r\n";
+            OutputStream out = s.getOutputStream();
+            out.write(head.getBytes(StandardCharsets.US_ASCII));
+            out.write(body);
+            out.flush();
+        } catch (IOException | InterruptedException e) {
+            // 客户端取消请求时连接会被断开
+        }
+    }
+
+    /**
+     * 读完请求头和请求体，请求体可以是定长的或分块传输的
+     * @return 连接在读完请求前被关闭时返回false
+     */
+    private static boolean readRequest(InputStream in) throws IOException {
+        int contentLength = 0;
+        boolean chunked = false;
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            String lower = line.toLowerCase(Locale.ROOT);
+            if (lower.startsWith("content-length:")) {
+                contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+            } else if (lower.startsWith("transfer-encoding:") && lower.contains("chunked")) {
+                chunked = true;
+            }
+        }
+        if (line == null) {
+            return false;
+        }
+        if (!chunked) {
+            return skip(in, contentLength);
+        }
+        while ((line = readLine(in)) != null) {
+            int size = Integer.parseInt(line.split(";")[0].trim(), 16);
+            if (!skip(in, size) || readLine(in) == null) {
+                return false;
+            }
+            if (size == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n') {
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+            }
+            line.write(b);
+        }
+        return null;
+    }
+
+    private static boolean skip(InputStream in, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            if (in.read() < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,262 @@
+package com.magicvector.ai.brain.routing;
+
+import com.github.tbwork.anole.loader.AnoleApp;
+import com.github.tbwork.anole.loader.annotion.AnoleConfigLocation;
+import com.magicvector.ai.brain.IChunkReader;
+import com.magicvector.ai.brain.llm.BrainConfig;
+import com.magicvector.ai.brain.llm.BrainConfigManager;
+import com.magicvector.ai.brain.llm.openai.GeneralBrain;
+import com.magicvector.ai.brain.routing.impl.WeightedRoundRobinBalancer;
+import com.magicvector.ai.exceptions.RemoteLLMCallException;
+import com.magicvector.ai.wizards.model.MagicChat;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 通过本地的{@link FakeLlmServer}校验路由脑的负载均衡、失败剔除、换端点重试和对冲请求。
+ * 使用默认配置：每次请求最多尝试2个端点，连续失败3次后剔除30秒。
+ */
+@AnoleConfigLocation()
+public class RoutingBrainTest {
+
+    /**
+     * 总是选择第一个候选端点，使换端点重试的顺序确定
+     */
+    private static final ILoadBalancer FIRST = candidates -> candidates.get(0);
+
+    private final List<FakeLlmServer> servers = new ArrayList<>();
+
+    @BeforeClass
+    public static void startAnole() {
+        AnoleApp.start();
+    }
+
+    @After
+    public void closeServers() throws IOException {
+        for (FakeLlmServer server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testWeightedBalancing() throws IOException {
+        FakeLlmServer light = newServer();
+        FakeLlmServer heavy = newServer();
+        BrainEndpoint lightEndpoint = endpoint("light", light, 1);
+        BrainEndpoint heavyEndpoint = endpoint("heavy", heavy, 3);
+        RoutingBrain brain = new RoutingBrain(Arrays.asList(lightEndpoint, heavyEndpoint), new WeightedRoundRobinBalancer());
+
+        for (int i = 0; i < 40; i++) {
+            assertEquals("你好！", readStream(brain, brain.process(newChat())));
+        }
+        assertEquals(10, light.getRequests());
+        assertEquals(30, heavy.getRequests());
+        assertEquals(0, lightEndpoint.getOutstanding());
+        assertEquals(0, heavyEndpoint.getOutstanding());
+        assertTrue(lightEndpoint.isAvailable());
+        assertTrue(heavyEndpoint.isAvailable());
+    }
+
+    @Test
+    public void testFailoverAndEjection() throws IOException {
+        FakeLlmServer broken = newServer();
+        broken.setStatus(503);
+        FakeLlmServer healthy = newServer();
+        BrainEndpoint brokenEndpoint = endpoint("broken", broken, 1);
+        BrainEndpoint healthyEndpoint = endpoint("healthy", healthy, 1);
+        RoutingBrain brain = new RoutingBrain(Arrays.asList(brokenEndpoint, healthyEndpoint), FIRST);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("你好！", readStream(brain, brain.process(newChat())));
+        }
+        // 前3次请求先发往故障端点，失败后换到健康端点；连续失败3次后故障端点被剔除，不再收到请求
+        assertEquals(3, broken.getRequests());
+        assertEquals(10, healthy.getRequests());
+        assertFalse(brokenEndpoint.isAvailable());
+        assertTrue(healthyEndpoint.isAvailable());
+        assertEquals(0, brokenEndpoint.getOutstanding());
+        assertEquals(0, healthyEndpoint.getOutstanding());
+    }
+
+    @Test
+    public void testAsyncFailoverWhenConnectionRefused() throws Exception {
+        FakeLlmServer stopped = newServer();
+        FakeLlmServer healthy = newServer();
+        stopped.close();
+        BrainEndpoint stoppedEndpoint = endpoint("stopped", stopped, 1);
+        BrainEndpoint healthyEndpoint = endpoint("healthy", healthy, 1);
+        RoutingBrain brain = new RoutingBrain(Arrays.asList(stoppedEndpoint, healthyEndpoint), FIRST);
+
+        InputStream inputStream = brain.processAsync(newChat()).get(10, TimeUnit.SECONDS);
+        assertEquals("你好！", readStream(brain, inputStream));
+        assertEquals(1, healthy.getRequests());
+        assertEquals(0, stoppedEndpoint.getOutstanding());
+        assertEquals(0, healthyEndpoint.getOutstanding());
+    }
+
+    @Test
+    public void testFailsWhenAllAttemptsFail() throws IOException {
+        FakeLlmServer first = newServer();
+        FakeLlmServer second = newServer();
+        first.setStatus(500);
+        second.setStatus(502);
+        RoutingBrain brain = new RoutingBrain(Arrays.asList(endpoint("first", first, 1), endpoint("second", second, 1)), FIRST);
+
+        try {
+            brain.process(newChat());
+            fail("all endpoints failed, the call should fail");
+        } catch (RemoteLLMCallException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("HTTP 502"));
+        }
+        assertEquals(1, first.getRequests());
+        assertEquals(1, second.getRequests());
+    }
+
+    @Test
+    public void testHedgeWinsOverSlowPrimary() throws Exception {
+        FakeLlmServer slow = newServer();
+        slow.setDelayMillis(3000L);
+        FakeLlmServer fast = newServer();
+        BrainEndpoint slowEndpoint = endpoint("slow", slow, 1);
+        BrainEndpoint fastEndpoint = endpoint("fast", fast, 1);
+        RoutingBrain brain = new RoutingBrain(Arrays.asList(slowEndpoint, fastEndpoint), FIRST);
+        brain.setHedgePolicy(hedgePolicy(200L, 1D));
+
+        long start = System.currentTimeMillis();
+        assertEquals("你好！", readStream(brain, brain.processAsync(newChat()).get(10, TimeUnit.SECONDS)));
+        // 主请求发往慢端点，200ms后对冲到快端点，不等慢端点响应
+        assertTrue(System.currentTimeMillis() - start < 3000L);
+        assertEquals(1, slow.getRequests());
+        assertEquals(1, fast.getRequests());
+        // 被取消的慢请求不计入进行中的请求，也不算失败
+        awaitOutstanding(slowEndpoint);
+        awaitOutstanding(fastEndpoint);
+        assertTrue(slowEndpoint.isAvailable());
+    }
+
+    @Test
+    public void testNoHedgeWhenRateCapExhausted() throws Exception {
+        FakeLlmServer slow = newServer();
+        slow.setDelayMillis(500L);
+        FakeLlmServer fast = newServer();
+        BrainEndpoint slowEndpoint = endpoint("slow", slow, 1);
+        BrainEndpoint fastEndpoint = endpoint("fast", fast, 1);
+        RoutingBrain brain = new RoutingBrain(Arrays.asList(slowEndpoint, fastEndpoint), FIRST);
+        // 只有初始的1次对冲额度，请求不会积累新的额度
+        brain.setHedgePolicy(hedgePolicy(100L, 0D));
+
+        assertEquals("你好！", readStream(brain, brain.process(newChat())));
+        assertEquals(1, fast.getRequests());
+
+        assertEquals("你好！", readStream(brain, brain.process(newChat())));
+        // 额度用完，第二个请求只能等慢端点响应
+        assertEquals(2, slow.getRequests());
+        assertEquals(1, fast.getRequests());
+        awaitOutstanding(slowEndpoint);
+        awaitOutstanding(fastEndpoint);
+    }
+
+    @Test
+    public void testFailsWithoutWaitingForHedgeWhenPrimaryFails() throws Exception {
+        FakeLlmServer first = newServer();
+        FakeLlmServer second = newServer();
+        first.setStatus(500);
+        second.setStatus(502);
+        BrainEndpoint firstEndpoint = endpoint("first", first, 1);
+        BrainEndpoint secondEndpoint = endpoint("second", second, 1);
+        RoutingBrain brain = new RoutingBrain(Arrays.asList(firstEndpoint, secondEndpoint), FIRST);
+        brain.setHedgePolicy(hedgePolicy(1000L, 1D));
+
+        long start = System.currentTimeMillis();
+        try {
+            brain.processAsync(newChat()).get(10, TimeUnit.SECONDS);
+            fail("all endpoints failed, the call should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RemoteLLMCallException);
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("HTTP 502"));
+        }
+        // 主请求换端点重试后仍失败，直接以失败结束，不等到对冲的时间
+        assertTrue(System.currentTimeMillis() - start < 1000L);
+        Thread.sleep(1200L);
+        // 请求结束后也不会再发出对冲请求
+        assertEquals(1, first.getRequests());
+        assertEquals(1, second.getRequests());
+        assertEquals(0, firstEndpoint.getOutstanding());
+        assertEquals(0, secondEndpoint.getOutstanding());
+    }
+
+    private FakeLlmServer newServer() throws IOException {
+        FakeLlmServer server = new FakeLlmServer();
+        servers.add(server);
+        return server;
+    }
+
+    private static BrainEndpoint endpoint(String name, FakeLlmServer server, int weight) {
+        BrainConfigManager configManager = new BrainConfigManager(() -> new BrainConfig.Builder()
+                .setChatApiUrl(server.getUrl())
+                .setApiKey("test-key")
+                .setConnectTimeoutSeconds(2L)
+                .setReadTimeoutSeconds(5L)
+                .setCallTimeoutSeconds(10L)
+                .build());
+        return new BrainEndpoint(name, new GeneralBrain("test-model", configManager), weight);
+    }
+
+    /**
+     * 等待时间固定为delayMillis的对冲策略，初始有1次对冲额度
+     * @param ratio 每个请求增加的对冲额度
+     */
+    private static HedgePolicy hedgePolicy(long delayMillis, double ratio) {
+        return new HedgePolicy(95D, 20L, delayMillis, delayMillis, delayMillis, ratio, 1D, 60000L);
+    }
+
+    /**
+     * 被放弃的请求在另一个线程中结束，等待端点的进行中请求数回到0
+     */
+    private static void awaitOutstanding(BrainEndpoint endpoint) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (endpoint.getOutstanding() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(0, endpoint.getOutstanding());
+    }
+
+    private static MagicChat newChat() {
+        MagicChat chat = new MagicChat();
+        chat.appendSystemMessage("你是一个测试助手");
+        chat.appendUserMessage("你好");
+        return chat;
+    }
+
+    /**
+     * 读完流式回复
+     * @return 回复的内容
+     */
+    private static String readStream(RoutingBrain brain, InputStream inputStream) throws IOException {
+        StringBuilder content = new StringBuilder();
+        try (InputStream in = inputStream) {
+            IChunkReader reader = brain.openChunkReader(in);
+            String chunk;
+            while ((chunk = reader.nextChunk()) != null) {
+                content.append(chunk);
+            }
+            assertFalse(reader.isFailed());
+        }
+        return content.toString();
+    }
+
+}
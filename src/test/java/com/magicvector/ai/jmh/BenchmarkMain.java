@@ -0,0 +1,28 @@
+package com.magicvector.ai.jmh;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 运行本包下的JMH微基准测试，参数为基准测试类名的正则，缺省时运行全部。
+ * <pre>
+ * mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test \
+ *     -Dexec.args="-cp %classpath com.magicvector.ai.jmh.BenchmarkMain SpellDelimiterMatcher"
+ * </pre>
+ * 需要通过exec:exec在独立的JVM中运行，JMH按java.class.path派生测量用的JVM。
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws RunnerException {
+        OptionsBuilder options = new OptionsBuilder();
+        if (args.length == 0) {
+            options.include(BenchmarkMain.class.getPackage().getName() + ".*");
+        }
+        for (String include : args) {
+            options.include(include);
+        }
+        new Runner(options.build()).run();
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.magicvector.ai.jmh;
+
+import com.magicvector.ai.util.IOUtil;
+import com.magicvector.ai.wizards.impl.SpellDelimiterMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式回复中识别咒语分隔符的开销：{@link SpellDelimiterMatcher}与此前逐字符截取子串、拼接StringBuilder的实现对比。
+ * 回复约8K字符，中英文混排，包含完整的咒语和形似分隔符的片段，按chunkChars切分为流式片段逐个处理。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SpellDelimiterMatcherBenchmark {
+
+    private static final String DELIMITER = "@#%";
+
+    /**
+     * 每个流式片段的字符数，模型的流式输出通常每个片段只有几个字符
+     */
+    @Param({"4", "64"})
+    public int chunkChars;
+
+    private List<String> chunks;
+
+    private SpellDelimiterMatcher matcher;
+
+    private CountingOutputStream sink;
+
+    @Setup
+    public void setUp() {
+        StringBuilder response = new StringBuilder();
+        for (int i = 0; response.length() < 8192; i++) {
+            response.append("好的，我先查询一下当前的时间，然后再回答你的问题。Let me check the weather for you. ");
+            response.append("邮箱地址形如name@#example.com，不是咒语。");
+            response.append(DELIMITER).append(" getWeather \"北京\" \"").append(i).append("\" ").append(DELIMITER);
+            response.append("\n");
+        }
+        chunks = new ArrayList<>();
+        for (int from = 0; from < response.length(); from += chunkChars) {
+            chunks.add(response.substring(from, Math.min(from + chunkChars, response.length())));
+        }
+        sink = new CountingOutputStream();
+        matcher = new SpellDelimiterMatcher(DELIMITER, sink, spell -> sink.count += spell.length());
+    }
+
+    @Benchmark
+    public long matcher() throws IOException {
+        sink.count = 0;
+        matcher.reset();
+        for (String chunk : chunks) {
+            matcher.feed(chunk);
+        }
+        matcher.finish();
+        return sink.count;
+    }
+
+    /**
+     * 此前ChatWizard中的实现：每个字符截取一个子串，分隔符前缀用StringBuilder累积，每个可见字符单独编码写出
+     */
+    @Benchmark
+    public void legacy(Blackhole blackhole) {
+        sink.count = 0;
+        StringBuilder spellStartTag = new StringBuilder();
+        StringBuilder spellEndTag = new StringBuilder();
+        for (String chunkText : chunks) {
+            int p = 0;
+            while (p < chunkText.length()) {
+                String charText = chunkText.substring(p, p + 1);
+                p++;
+                if (spellStartTag.length() < DELIMITER.length()) {
+                    spellStartTag.append(charText);
+                    if (!DELIMITER.startsWith(spellStartTag.toString())) {
+                        IOUtil.writeToOutputStream(charText, sink);
+                        spellStartTag = new StringBuilder();
+                        continue;
+                    }
+                }
+                if (DELIMITER.contentEquals(spellStartTag)) {
+                    if (spellEndTag.length() < DELIMITER.length()) {
+                        spellEndTag.append(charText);
+                        if (!DELIMITER.startsWith(spellEndTag.toString())) {
+                            spellEndTag = new StringBuilder();
+                        }
+                    }
+                    if (DELIMITER.contentEquals(spellEndTag)) {
+                        spellStartTag = new StringBuilder();
+                        spellEndTag = new StringBuilder();
+                    }
+                }
+            }
+        }
+        blackhole.consume(sink.count);
+    }
+
+    /**
+     * 只计数不保存的输出流，避免测量写入内存的开销
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+}
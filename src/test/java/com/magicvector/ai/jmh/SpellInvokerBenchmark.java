@@ -0,0 +1,90 @@
+package com.magicvector.ai.jmh;
+
+import com.magicvector.ai.core.Spell;
+import com.magicvector.ai.executors.impl.SpellInvoker;
+import com.magicvector.ai.util.ClassUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 执行一次咒语方法的调度开销：注册时生成的{@link SpellInvoker}与此前每次执行都加载类、查找方法并反射调用的实现对比。
+ * 咒语方法本身只拼接参数，测得的基本都是调度开销。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SpellInvokerBenchmark {
+
+    /**
+     * 咒语方法：静态方法，或每次调用都创建新实例的实例方法
+     */
+    @Param({"weather", "weatherOf"})
+    public String methodName;
+
+    private Spell spell;
+
+    private SpellInvoker invoker;
+
+    private List<String> values;
+
+    @Setup
+    public void setUp() {
+        spell = new Spell.Builder()
+                .setApiName(methodName)
+                .setClassName(WeatherSpells.class.getName())
+                .setMethodName(methodName)
+                .build();
+        invoker = SpellInvoker.compile(spell);
+        values = Arrays.asList("北京", "明天");
+    }
+
+    @Benchmark
+    public Object invoker() throws Throwable {
+        return invoker.invoke(values).toString();
+    }
+
+    /**
+     * 此前Executor中的实现
+     */
+    @Benchmark
+    public Object legacy() throws Exception {
+        Class<?> clazz = Class.forName(spell.getClassName());
+        Method method = ClassUtil.getMethodByName(clazz, spell.getMethodName());
+        Object instance = null;
+        if (!Modifier.isStatic(method.getModifiers())) {
+            instance = clazz.getDeclaredConstructor().newInstance();
+        }
+        Object[] params = values.toArray(new String[0]);
+        return method.invoke(instance, params).toString();
+    }
+
+    public static class WeatherSpells {
+
+        public static String weather(String city, String day) {
+            return city + day + "晴";
+        }
+
+        public String weatherOf(String city, String day) {
+            return city + day + "晴";
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.magicvector.ai.tokenizer.impl;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 使用测试资源中的小词表（tokenizer/fixture.tiktoken，tiktoken格式，前256个为单字节，其后为按序号排列的合并结果）校验BPE分词器：
+ * 预切分与cl100k_base的正则逐片段比对，合并过程与逐步合并最小序号相邻对的参考实现比对。
+ */
+public class BpeTokenizerTest {
+
+    /**
+     * cl100k_base的预切分正则，\s、\p{L}、\p{N}均按Unicode属性匹配
+     */
+    private static final Pattern CL100K_PATTERN = Pattern.compile(
+            "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+",
+            Pattern.UNICODE_CHARACTER_CLASS);
+
+    private static final String[] ALPHABET = {
+            "a", "b", "c", "e", "h", "l", "o", "t", "k", "i", "n", "g", "s", "r", "v", "m", "d", "w", "A", "Z", "ǅ",
+            "1", "2", "3", "٣", "Ⅻ", "²",
+            "'", "'s", "'RE", ".", "!", "-", "。", "😀",
+            " ", "  ", "\t", "\n", "\r\n", " ", "　", "\u0085", "\u001C",
+            "你", "好", "世", "he", "ll", "to", "ken", " the", "12", "123"
+    };
+
+    private static BpeVocabulary vocabulary;
+
+    private static BpeTokenizer tokenizer;
+
+    @BeforeClass
+    public static void loadVocabulary() throws Exception {
+        try (InputStream inputStream = BpeTokenizerTest.class.getClassLoader().getResourceAsStream("tokenizer/fixture.tiktoken")) {
+            vocabulary = BpeVocabulary.load(inputStream);
+        }
+        tokenizer = new BpeTokenizer(vocabulary);
+    }
+
+    @Test
+    public void testVocabulary() {
+        assertEquals(300, vocabulary.size());
+        assertEquals('a', rank("a"));
+        assertEquals(261, rank("hello"));
+        assertEquals(298, rank("你好"));
+        assertEquals(-1, rank("abc"));
+    }
+
+    @Test
+    public void testKnownCounts() {
+        assertEquals(0, tokenizer.countTokens(""));
+        assertEquals(2, tokenizer.countTokens("hello world"));
+        // t|ik|token| is| great|!
+        assertEquals(6, tokenizer.countTokens("tiktoken is great!"));
+        // bc的序号小于ab，先合并为a|bc
+        assertEquals(2, tokenizer.countTokens("abc"));
+        // it|'s| |123|4|5
+        assertEquals(7, tokenizer.countTokens("it's 12345"));
+        // 你好|世界的6个字节
+        assertEquals(7, tokenizer.countTokens("你好世界"));
+        // e|n|d|.|\n\n|n|e|x|t
+        assertEquals(9, tokenizer.countTokens("end.\n\nnext"));
+        // th|e| th|ing|  | in
+        assertEquals(7, tokenizer.countTokens("the thing   in"));
+    }
+
+    @Test
+    public void testNextPieceMatchesCl100kPattern() {
+        Random random = new Random(20240601L);
+        for (int i = 0; i < 20000; i++) {
+            String text = randomText(random);
+            assertEquals(text, referencePieces(text), pieces(text));
+        }
+    }
+
+    @Test
+    public void testMergeMatchesReference() {
+        Random random = new Random(20240602L);
+        for (int i = 0; i < 20000; i++) {
+            String text = randomText(random);
+            int expected = 0;
+            for (String piece : referencePieces(text)) {
+                expected += referenceMerge(piece.getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals(text, expected, tokenizer.countTokens(text));
+        }
+    }
+
+    private static int rank(String token) {
+        byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+        return vocabulary.rank(bytes, 0, bytes.length);
+    }
+
+    private static String randomText(Random random) {
+        StringBuilder text = new StringBuilder();
+        int length = random.nextInt(24);
+        for (int i = 0; i < length; i++) {
+            text.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+        }
+        return text.toString();
+    }
+
+    private static List<String> pieces(String text) {
+        List<String> pieces = new ArrayList<>();
+        int position = 0;
+        while (position < text.length()) {
+            int end = BpeTokenizer.nextPiece(text, position, text.length());
+            pieces.add(text.substring(position, end));
+            position = end;
+        }
+        return pieces;
+    }
+
+    private static List<String> referencePieces(String text) {
+        List<String> pieces = new ArrayList<>();
+        Matcher matcher = CL100K_PATTERN.matcher(text);
+        while (matcher.find()) {
+            pieces.add(matcher.group());
+        }
+        return pieces;
+    }
+
+    /**
+     * 与tiktoken相同的合并方式：整个片段在词表中时为1个token，否则从单字节开始反复合并序号最小的相邻对
+     */
+    private static int referenceMerge(byte[] piece) {
+        if (vocabulary.rank(piece, 0, piece.length) >= 0) {
+            return 1;
+        }
+        List<byte[]> parts = new ArrayList<>();
+        for (byte b : piece) {
+            parts.add(new byte[]{b});
+        }
+        while (parts.size() > 1) {
+            int minRank = Integer.MAX_VALUE;
+            int minIndex = -1;
+            for (int i = 0; i < parts.size() - 1; i++) {
+                byte[] merged = concat(parts.get(i), parts.get(i + 1));
+                int rank = vocabulary.rank(merged, 0, merged.length);
+                if (rank >= 0 && rank < minRank) {
+                    minRank = rank;
+                    minIndex = i;
+                }
+            }
+            if (minIndex < 0) {
+                break;
+            }
+            parts.set(minIndex, concat(parts.get(minIndex), parts.remove(minIndex + 1)));
+        }
+        return parts.size();
+    }
+
+    private static byte[] concat(byte[] left, byte[] right) {
+        byte[] merged = Arrays.copyOf(left, left.length + right.length);
+        System.arraycopy(right, 0, merged, left.length, right.length);
+        return merged;
+    }
+
+}